@@ -35,7 +35,7 @@ public class DippMain {
      */
     public static void main(String[] args) {
 	Syncer syncer = new Syncer(new DippIngester(), new DippDownloader(),
-		new DippDigitalEntityBuilder());
+		DippDigitalEntityBuilder::new);
 	syncer.main(args);
     }
 }
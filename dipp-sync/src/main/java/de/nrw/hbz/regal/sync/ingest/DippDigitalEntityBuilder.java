@@ -31,7 +31,6 @@ import org.w3c.dom.NodeList;
 import archive.fedora.XmlUtils;
 import de.nrw.hbz.regal.sync.extern.DigitalEntity;
 import de.nrw.hbz.regal.sync.extern.DigitalEntityBuilderInterface;
-import de.nrw.hbz.regal.sync.extern.Md5Checksum;
 import de.nrw.hbz.regal.sync.extern.StreamType;
 
 /**
@@ -121,10 +120,9 @@ public class DippDigitalEntityBuilder implements DigitalEntityBuilderInterface {
 	buildRelated("rel:hasDependent", dtlDe, baseDir);
 
 	File content = new File(baseDir + File.separator + "content.zip");
-	String md5Hash = getMd5(content);
 	if (content.exists()) {
 	    dtlDe.addStream(content, "application/zip", StreamType.DATA, null,
-		    md5Hash);
+		    getMd5(content));
 	}
 
 	return dtlDe;
@@ -132,8 +130,7 @@ public class DippDigitalEntityBuilder implements DigitalEntityBuilderInterface {
     }
 
     private String getMd5(File stream) {
-	Md5Checksum md5 = new Md5Checksum();
-	return md5.getMd5Checksum(stream);
+	return Md5Sidecar.get(stream);
     }
 
     private void buildRelated(String relation, DigitalEntity dtlDe,
@@ -18,13 +18,14 @@ package de.nrw.hbz.regal.sync.ingest;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -41,45 +42,53 @@ import archive.fedora.XmlUtils;
 public class DippDownloader extends Downloader {
 
     protected void downloadObject(File dir, String pid) {
+	downloadObject(dir, pid, new HashSet<String>());
+    }
+
+    /*
+     * path holds the pids from the fetched object down to this one, so a
+     * cycle of relations ends. It belongs to the calling thread.
+     */
+    private void downloadObject(File dir, String pid, Set<String> path) {
+	if (!path.add(pid)) {
+	    logger.debug(pid + " is already downloaded on this path.");
+	    return;
+	}
 	try {
 	    logger.debug(pid + " start download!");
 	    URL url = new URL(getServer() + "get/" + pid + "?xml=true");
 	    File file = new File(dir.getAbsolutePath() + File.separator
 		    + URLEncoder.encode(pid, "utf-8") + ".xml");
-	    String data = null;
-	    StringWriter writer = new StringWriter();
-	    IOUtils.copy(url.openStream(), writer);
-	    data = writer.toString();
-	    FileUtils.writeStringToFile(file, data, "utf-8");
+	    String data = getTransport().getString(url.toString(), "utf-8");
+	    writeText(file, data);
 
 	    downloadStreams(dir, pid);
-	    downloadConstituent(dir, pid);
-	    downloadRelatedObject(dir, pid, "rel:hasPart");
-
-	    downloadRelatedObject(dir, pid, "rel:isPartOf");
-	    downloadRelatedObject(new File(getDownloadLocation()), pid,
-		    "rel:isMemberOf");
-	    downloadRelatedObject(new File(getDownloadLocation()), pid,
-		    "rel:isSubsetOf");
-	    downloadRelatedObject(new File(getDownloadLocation()), pid,
-		    "rel:isMemberOfCollection");
+	    downloadConstituent(dir, pid, path);
+	    downloadRelatedObject(dir, pid, "rel:hasPart", path);
+
+	    downloadRelatedObject(dir, pid, "rel:isPartOf", path);
+	    // the collections are shared with other objects
+	    downloadSharedObject(pid, "rel:isMemberOf", path);
+	    downloadSharedObject(pid, "rel:isSubsetOf", path);
+	    downloadSharedObject(pid, "rel:isMemberOfCollection", path);
 	} catch (MalformedURLException e) {
 	    logger.error(e.getMessage());
+	    throw new DownloadException(e);
 	} catch (IOException e) {
 	    logger.error(e.getMessage());
+	    throw new DownloadException(e);
+	} finally {
+	    path.remove(pid);
 	}
 
     }
 
-    private void downloadConstituent(File dir, String pid) {
+    private void downloadConstituent(File dir, String pid, Set<String> path) {
 	String relation = "rel:hasConstituent";
 
 	try {
 	    URL url = new URL(getServer() + "get/" + pid + "/RELS-EXT");
-	    String data = null;
-	    StringWriter writer = new StringWriter();
-	    IOUtils.copy(url.openStream(), writer);
-	    data = writer.toString();
+	    String data = getTransport().getString(url.toString(), "utf-8");
 
 	    Element root = XmlUtils.getDocument(data);
 	    NodeList constituents = root.getElementsByTagName(relation);
@@ -101,13 +110,12 @@ public class DippDownloader extends Downloader {
 		    + URLEncoder.encode(cPid, "utf-8"));
 
 		    try {
-			downloadObject(cDir, cPid);
+			downloadObject(cDir, cPid, path);
 		    } catch (Exception e) {
 			logger.warn(e.getMessage());
 		    }
 		    try {
-			getMap().remove(cPid);
-			downloadObject(zipDir, cPid);
+			downloadObject(zipDir, cPid, path);
 		    } catch (Exception e) {
 			logger.warn(e.getMessage());
 		    }
@@ -126,13 +134,48 @@ public class DippDownloader extends Downloader {
 
     }
 
-    private void downloadRelatedObject(File dir, String pid, String relation) {
+    private void downloadRelatedObject(File dir, String pid, String relation,
+	    Set<String> path) {
+	for (String cPid : related(pid, relation)) {
+	    try {
+		File cDir = new File(dir.getAbsolutePath() + File.separator
+			+ URLEncoder.encode(cPid, "utf-8"));
+		downloadObject(cDir, cPid, path);
+	    } catch (Exception e) {
+		logger.debug(e.getMessage());
+	    }
+	}
+    }
+
+    /*
+     * The related object is downloaded to its own directory in the download
+     * location, the one fetch(cPid) uses. Sibling objects share it, so it is
+     * left to the thread that already holds its lock.
+     */
+    private void downloadSharedObject(String pid, String relation,
+	    Set<String> path) {
+	for (String cPid : related(pid, relation)) {
+	    if (!tryLock(cPid)) {
+		logger.debug(cPid + " is downloaded by another thread.");
+		continue;
+	    }
+	    try {
+		File cDir = new File(getDownloadLocation() + File.separator
+			+ URLEncoder.encode(cPid, "utf-8"));
+		downloadObject(cDir, cPid, path);
+	    } catch (Exception e) {
+		logger.debug(e.getMessage());
+	    } finally {
+		unlock(cPid);
+	    }
+	}
+    }
+
+    private List<String> related(String pid, String relation) {
+	List<String> related = new Vector<String>();
 	try {
 	    URL url = new URL(getServer() + "get/" + pid + "/RELS-EXT");
-	    String data = null;
-	    StringWriter writer = new StringWriter();
-	    IOUtils.copy(url.openStream(), writer);
-	    data = writer.toString();
+	    String data = getTransport().getString(url.toString(), "utf-8");
 
 	    Element root = XmlUtils.getDocument(data);
 	    NodeList constituents = root.getElementsByTagName(relation);
@@ -152,12 +195,7 @@ public class DippDownloader extends Downloader {
 			logger.debug(cPid + " skip temporary object.");
 
 		    } else {
-			File cDir = new File(dir.getAbsolutePath()
-				+ File.separator
-
-				+ URLEncoder.encode(cPid, "utf-8"));
-
-			downloadObject(cDir, cPid);
+			related.add(cPid);
 		    }
 		} catch (Exception e) {
 		    logger.debug(e.getMessage());
@@ -167,16 +205,14 @@ public class DippDownloader extends Downloader {
 	} catch (Exception e) {
 	    logger.error(e.getMessage());
 	}
+	return related;
     }
 
     private void downloadStreams(File dir, String pid) {
 	try {
 	    URL url = new URL(getServer() + "listDatastreams/" + pid
 		    + "?xml=true");
-	    String data = null;
-	    StringWriter writer = new StringWriter();
-	    IOUtils.copy(url.openStream(), writer);
-	    data = writer.toString();
+	    String data = getTransport().getString(url.toString(), "utf-8");
 
 	    Element root = XmlUtils.getDocument(data);
 	    NodeList dss = root.getElementsByTagName("datastream");
@@ -17,8 +17,9 @@
 package de.nrw.hbz.regal.sync.ingest;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import models.ObjectType;
 
@@ -47,14 +48,23 @@ public class DippIngester implements IngestInterface {
     private String namespace = "dipp";
     String host = null;
     Webclient webclient = null;
-    HashMap<String, String> map = new HashMap<String, String>();
+    IngestScheduler scheduler = new IngestScheduler(0);
+    Map<String, String> map = new ConcurrentHashMap<String, String>();
 
     @Override
     public void init(String host, String user, String password, String ns,
 	    KeystoreConf kconf) {
+	init(host, user, password, ns, kconf, new WebclientConf());
+    }
+
+    @Override
+    public void init(String host, String user, String password, String ns,
+	    KeystoreConf kconf, WebclientConf wconf) {
 	this.namespace = ns;
 	this.host = host;
-	webclient = new Webclient(namespace, user, password, host, kconf);
+	webclient = new Webclient(namespace, user, password, host, kconf,
+		wconf);
+	scheduler = new IngestScheduler(wconf.partThreads);
     }
 
     @Override
@@ -144,11 +154,12 @@ public class DippIngester implements IngestInterface {
 	map.clear();
 	try {
 	    logger.info(pid + " " + "Found eJournal article.");
-	    webclient.createObject(dtlBean, ObjectType.article);
-	    logger.info(pid + " " + "updated.\n");
-	    webclient.autoGenerateMetadataMerge(dtlBean, metadata);
-	    webclient.makeOaiSet(dtlBean);
-	    logger.info(pid + " " + "and all related updated.\n");
+	    List<String> failed = webclient.batch(scheduler, dtlBean,
+		    new WebclientSteps(webclient, ObjectType.article,
+			    metadata));
+	    if (failed.isEmpty()) {
+		logger.info(pid + " " + "and all related updated.\n");
+	    }
 	} catch (IllegalArgumentException e) {
 	    logger.debug(e.getMessage());
 	}
@@ -36,7 +36,7 @@ public class EdowebMain {
      */
     public static void main(String[] args) {
 	Syncer syncer = new Syncer(new EdowebIngester(),
-		new DigitoolDownloader(), new EdowebDigitalEntityBuilder());
+		new DigitoolDownloader(), EdowebDigitalEntityBuilder::new);
 	syncer.main(args);
     }
 }
@@ -16,18 +16,9 @@
  */
 package de.nrw.hbz.regal.sync.ingest;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,7 +28,6 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import archive.fedora.XmlUtils;
-import de.nrw.hbz.regal.sync.extern.Md5Checksum;
 
 /**
  * 
@@ -60,6 +50,7 @@ public class DigitoolDownloader extends Downloader {
 	    getStream(digitalEntityFile, pid, baseDir);
 	} catch (Exception e) {
 	    logger.error(pid + " " + e);
+	    throw new DownloadException(e);
 	}
     }
 
@@ -98,9 +89,7 @@ public class DigitoolDownloader extends Downloader {
 	    url = new URL(server + "/webclient/DeliveryManager?pid=" + pid
 		    + "&amp;custom_att_2=simple_viewer");
 	}
-	HttpURLConnection con = (HttpURLConnection) url.openConnection();
-	con.setInstanceFollowRedirects(true);
-	copy(con.getInputStream(), streamFile);
+	getTransport().copy(url.toString(), streamFile);
 	String digitoolMd5 = getDigitoolMd5(root);
 	String md5 = getMd5(streamFile);
 	logger.info(pid + " md5: " + digitoolMd5 + " , " + md5);
@@ -124,8 +113,7 @@ public class DigitoolDownloader extends Downloader {
     }
 
     private String getMd5(File stream) {
-	Md5Checksum md5 = new Md5Checksum();
-	return md5.getMd5Checksum(stream);
+	return Md5Sidecar.get(stream);
     }
 
     private String getDigitoolMd5(Element root) {
@@ -183,38 +171,9 @@ public class DigitoolDownloader extends Downloader {
 		server
 			+ "/webclient/DeliveryManager?application=Staff&user=Staff&metadata_request=true&pid="
 			+ pid + "&GET_XML=1");
-	URLConnection con = url.openConnection();
-	String str = streamToString(con);
-	stringToFile(str, file);
-    }
-
-    private void stringToFile(String str, File file) throws IOException {
-	try (BufferedReader in = new BufferedReader(new StringReader(str));
-		BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
-	    char[] buf = new char[1024];
-	    int n;
-	    while ((n = in.read(buf)) != -1) {
-		out.write(buf, 0, n);
-	    }
-	}
-    }
-
-    private String streamToString(URLConnection con) throws IOException,
-	    UnsupportedEncodingException {
-	try (StringWriter strOut = new StringWriter();
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-			con.getInputStream(), "UTF-8"))) {
-	    // Copy stream to String
-	    char[] buf = new char[1024];
-	    int n;
-	    while ((n = in.read(buf)) != -1) {
-		strOut.write(buf, 0, n);
-	    }
-	    String str = strOut.toString();
-	    // transform String
-	    str = transformString(str);
-	    return str;
-	}
+	String str = transformString(getTransport().getString(url.toString(),
+		"UTF-8"));
+	writeText(file, str);
     }
 
     /**
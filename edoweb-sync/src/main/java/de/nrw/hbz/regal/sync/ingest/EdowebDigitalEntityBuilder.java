@@ -44,7 +44,6 @@ import archive.fedora.XmlUtils;
 import de.nrw.hbz.regal.sync.extern.DigitalEntity;
 import de.nrw.hbz.regal.sync.extern.DigitalEntityBuilderInterface;
 import de.nrw.hbz.regal.sync.extern.DigitalEntityRelation;
-import de.nrw.hbz.regal.sync.extern.Md5Checksum;
 import de.nrw.hbz.regal.sync.extern.RelatedDigitalEntity;
 import de.nrw.hbz.regal.sync.extern.StreamType;
 
@@ -385,8 +384,7 @@ public class EdowebDigitalEntityBuilder implements
     }
 
     private String getMd5(File stream) {
-	Md5Checksum md5 = new Md5Checksum();
-	return md5.getMd5Checksum(stream);
+	return Md5Sidecar.get(stream);
     }
 
     private String getMarc(Node item) {
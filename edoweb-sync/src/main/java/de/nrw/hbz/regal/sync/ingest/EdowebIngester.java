@@ -18,6 +18,9 @@ package de.nrw.hbz.regal.sync.ingest;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import models.ObjectType;
@@ -43,14 +46,25 @@ public class EdowebIngester implements IngestInterface {
     String namespace = "edoweb";
 
     Webclient webclient = null;
+    AsyncWebclient async = null;
+    IngestScheduler scheduler = new IngestScheduler(0);
     String host = null;
 
     @Override
     public void init(String host, String user, String password, String ns,
 	    KeystoreConf kconf) {
+	init(host, user, password, ns, kconf, new WebclientConf());
+    }
+
+    @Override
+    public void init(String host, String user, String password, String ns,
+	    KeystoreConf kconf, WebclientConf wconf) {
 	this.namespace = ns;
 	this.host = host;
-	webclient = new Webclient(namespace, user, password, host, kconf);
+	webclient = new Webclient(namespace, user, password, host, kconf,
+		wconf);
+	async = new AsyncWebclient(webclient, wconf.maxConnectionsPerHost);
+	scheduler = new IngestScheduler(wconf.partThreads);
 	webclient.initContentModels(namespace);
     }
 
@@ -70,37 +84,38 @@ public class EdowebIngester implements IngestInterface {
 	    if (partitionC.compareTo("EJO01") == 0) {
 		if (dtlBean.isParent()) {
 		    logger.info(pid + ": start ingesting eJournal");
-		    updateJournal(dtlBean);
+		    ingestTree(dtlBean, this::updateJournal, this::updatePart);
 		    logger.info(pid + ": end ingesting eJournal");
 		} else {
 		    logger.info(pid + ": start ingesting eJournal issue");
-		    updatePart(dtlBean);
+		    ingestTree(dtlBean, this::updatePart, this::updatePart);
 		    logger.info(pid + ": end ingesting eJournal issue");
 		}
 	    } else if (partitionC.compareTo("WPD01") == 0) {
 
 		logger.info(pid + ": start updating monograph (wpd01)");
-		updateMonographs(dtlBean);
+		ingestTree(dtlBean, this::updateMonographs, this::updatePart);
 		logger.info(pid + ": end updating monograph (wpd01)");
 	    } else if (partitionC.compareTo("WPD02") == 0) {
 
 		logger.info(pid + ": start updating monograph (wpd02)");
-		updateMonographs(dtlBean);
+		ingestTree(dtlBean, this::updateMonographs, this::updatePart);
 		logger.info(pid + ": end updating monograph (wpd02)");
 	    } else if (partitionC.compareTo("WSC01") == 0) {
 		if (dtlBean.isParent()) {
 		    logger.info(pid + ": start ingesting webpage (wsc01)");
-		    updateWebpage(dtlBean);
+		    ingestTree(dtlBean, this::updateWebpage,
+			this::updateVersion);
 		    logger.info(pid + ": end ingesting webpage (wsc01)");
 		} else {
 		    logger.info(pid
 			    + ": start ingesting webpage version (wsc01)");
-		    updateVersion(dtlBean);
+		    ingestTree(dtlBean, this::updateVersion, this::updatePart);
 		    logger.info(pid + ": end ingesting webpage version (wsc01)");
 		}
 	    } else if (partitionC.compareTo("WSI01") == 0) {
 		logger.info(pid + ": start updating webpage (wsi01)");
-		updateWebpage(dtlBean);
+		ingestTree(dtlBean, this::updateWebpage, this::updateVersion);
 		logger.info(pid + ": end updating webpage (wsi01)");
 	    }
 	} catch (Exception e) {
@@ -127,36 +142,38 @@ public class EdowebIngester implements IngestInterface {
 	    if (partitionC.compareTo("EJO01") == 0) {
 		if (dtlBean.isParent()) {
 		    logger.info(pid + ": start updating eJournal");
-		    updateJournalParent(dtlBean);
+		    ingestTree(dtlBean, this::updateJournalParent,
+			    this::updatePart);
 		    logger.info(pid + ": end updating eJournal");
 		} else {
 		    logger.info(pid + ": start updating eJournal issue");
-		    updateVolume(dtlBean);
+		    ingestTree(dtlBean, this::updateVolume, this::updatePart);
 		    logger.info(pid + ": end updating eJournal issue");
 		}
 	    } else if (partitionC.compareTo("WPD01") == 0) {
 		logger.info(pid + ": start updating monograph (wpd01)");
-		updateMonographs(dtlBean);
+		ingestTree(dtlBean, this::updateMonographs, this::updatePart);
 		logger.info(pid + ": end updating monograph (wpd01)");
 	    } else if (partitionC.compareTo("WPD02") == 0) {
 
 		logger.info(pid + ": start updating monograph (wpd02)");
-		updateMonographs(dtlBean);
+		ingestTree(dtlBean, this::updateMonographs, this::updatePart);
 		logger.info(pid + ": end updating monograph (wpd02)");
 	    } else if (partitionC.compareTo("WSC01") == 0) {
 		if (dtlBean.isParent()) {
 		    logger.info(pid + ": start updating webpage (wsc01)");
-		    updateWebpageParent(dtlBean);
+		    ingestTree(dtlBean, this::updateWebpageParent,
+			    this::updateVersion);
 		    logger.info(pid + ": end updating webpage (wsc01)");
 		} else {
 		    logger.info(pid
 			    + ": start updating webpage version (wsc01)");
-		    updateVersion(dtlBean);
+		    ingestTree(dtlBean, this::updateVersion, this::updatePart);
 		    logger.info(pid + ": end updating webpage version (wsc01)");
 		}
 	    } else if (partitionC.compareTo("WSI01") == 0) {
 		logger.info(pid + ": start updating webpage (wsi01)");
-		updateWebpage(dtlBean);
+		ingestTree(dtlBean, this::updateWebpage, this::updateVersion);
 		logger.info(pid + ": end updating webpage (wsi01)");
 	    }
 	} catch (Exception e) {
@@ -172,31 +189,65 @@ public class EdowebIngester implements IngestInterface {
 
     }
 
-    protected void updatePart(DigitalEntity dtlBean) {
+    /**
+     * Ingests the entity with createRoot, the parts of the entity with
+     * createPart and all deeper parts with updatePart. Each of these methods
+     * creates a single entity and returns its parts. The IngestScheduler
+     * creates the parts as soon as their parent exists.
+     * 
+     * @param root
+     *            the entity to ingest
+     * @param createRoot
+     *            creates the entity and returns its parts
+     * @param createPart
+     *            creates a part of the entity and returns its parts
+     */
+    protected void ingestTree(DigitalEntity root,
+	    Function<DigitalEntity, List<DigitalEntity>> createRoot,
+	    Function<DigitalEntity, List<DigitalEntity>> createPart) {
+	Set<DigitalEntity> rootParts = ConcurrentHashMap.newKeySet();
+	List<String> failed = webclient.batch(scheduler, root,
+		entity -> {
+		    if (entity == root) {
+			List<DigitalEntity> parts = createRoot.apply(entity);
+			rootParts.addAll(parts);
+			return parts;
+		    }
+		    if (rootParts.contains(entity)) {
+			return createPart.apply(entity);
+		    }
+		    return updatePart(entity);
+		});
+	for (String f : failed) {
+	    logger.warn(root.getPid() + " failed: " + f);
+	}
+    }
+
+    protected List<DigitalEntity> updatePart(DigitalEntity dtlBean) {
 
 	String usageType = dtlBean.getUsageType();
 	if (usageType.compareTo(ObjectType.volume.toString()) == 0) {
-	    updateVolume(dtlBean);
+	    return updateVolume(dtlBean);
 	} else if (usageType.compareTo(ObjectType.file.toString()) == 0) {
-	    updateFile(dtlBean);
+	    return updateFile(dtlBean);
 	} else if (usageType.compareTo(ObjectType.version.toString()) == 0) {
-	    updateVersion(dtlBean);
+	    return updateVersion(dtlBean);
 	} else if (usageType.compareTo(ObjectType.issue.toString()) == 0) {
-	    updateIssue(dtlBean);
+	    return updateIssue(dtlBean);
 	} else if (usageType.compareTo(ObjectType.rootElement.toString()) == 0) {
-	    updateRootElement(dtlBean);
+	    return updateRootElement(dtlBean);
 	} else // if (usageType.compareTo(ObjectType.issue.toString()) == 0)
 	{
-	    updateFile(dtlBean);
+	    return updateFile(dtlBean);
 	}
     }
 
-    private void updateFile(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateFile(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 
 	try {
 	    ObjectType t = ObjectType.file;
-	    webclient.createObject(dtlBean, t);
+	    async.createObject(dtlBean, t).join();
 	    logger.info(pid + " " + "Found file part.");
 
 	    String metadata = RdfUtils.addTriple(pid,
@@ -207,14 +258,14 @@ public class EdowebIngester implements IngestInterface {
 	} catch (Exception e) {
 	    logger.warn(e.getMessage());
 	}
-
+	return new Vector<DigitalEntity>();
     }
 
-    private void updateVersion(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateVersion(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	try {
 	    ObjectType t = ObjectType.version;
-	    webclient.createObject(dtlBean, t);
+	    async.createObject(dtlBean, t).join();
 	    logger.info(pid + " " + "Found webpage version.");
 	    String metadata = RdfUtils.addTriple(pid,
 		    "http://purl.org/dc/terms/title", dtlBean.getLabel(), true,
@@ -224,10 +275,10 @@ public class EdowebIngester implements IngestInterface {
 	} catch (Exception e) {
 	    logger.warn(e.getMessage());
 	}
-
+	return new Vector<DigitalEntity>();
     }
 
-    private void updateVolume(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateVolume(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	logger.info(pid + " " + "Found eJournal volume.");
 	List<DigitalEntity> list = getParts(dtlBean);
@@ -236,32 +287,20 @@ public class EdowebIngester implements IngestInterface {
 		pid,
 		list.stream().map((DigitalEntity d) -> d.getPid())
 			.collect(Collectors.toList()));
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " issues.");
-	for (DigitalEntity issue : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
-	    updatePart(issue);
-	}
-
-	logger.info(pid + " " + "updated.\n");
+	logger.info(pid + " Found " + list.size() + " issues.");
+	return list;
     }
 
-    private void updateRootElement(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateRootElement(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	logger.info(pid + " " + "Found eJournal rootElement.");
 	List<DigitalEntity> list = getParts(dtlBean);
 
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " volumes.");
+	logger.info(pid + " Found " + list.size() + " volumes.");
 	for (DigitalEntity volume : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
 	    volume.setParentPid(dtlBean.getParentPid());
-	    updatePart(volume);
 	}
-
-	logger.info(pid + " " + "updated.\n");
+	return list;
     }
 
     private void initVolume(DigitalEntity dtlBean, String pid,
@@ -299,7 +338,7 @@ public class EdowebIngester implements IngestInterface {
 	}
     }
 
-    private void updateIssue(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateIssue(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	logger.info(pid + " " + "Found eJournal file.");
 	List<DigitalEntity> list = getParts(dtlBean);
@@ -308,38 +347,27 @@ public class EdowebIngester implements IngestInterface {
 		pid,
 		list.stream().map((DigitalEntity d) -> d.getPid())
 			.collect(Collectors.toList()));
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " file.");
-	for (DigitalEntity part : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
-	    updatePart(part);
-	}
-	logger.info(pid + " " + "updated.\n");
+	logger.info(pid + " Found " + list.size() + " file.");
+	return list;
     }
 
-    private void updateWebpage(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateWebpage(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	webclient.createResource(ObjectType.webpage, dtlBean);
 	webclient.autoGenerateMetdata(dtlBean);
 	webclient.makeOaiSet(dtlBean);
 	includeDataStreamIfAvailable(dtlBean);
 	List<DigitalEntity> list = getParts(dtlBean);
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " parts.");
-	for (DigitalEntity b : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
-	    updateVersion(b);
-	}
-	logger.info(pid + " " + "updated.\n");
+	logger.info(pid + " Found " + list.size() + " parts.");
+	return list;
     }
 
     /**
      * @param dtlBean
      *            a dtlBean representing a monograph
+     * @return the parts of the monograph
      */
-    protected void updateMonographs(DigitalEntity dtlBean) {
+    protected List<DigitalEntity> updateMonographs(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	webclient.createResource(ObjectType.monograph, dtlBean);
 	webclient.autoGenerateMetdata(dtlBean);
@@ -347,14 +375,8 @@ public class EdowebIngester implements IngestInterface {
 	webclient.makeOaiSet(dtlBean);
 	includeDataStreamIfAvailable(dtlBean);
 	List<DigitalEntity> list = getParts(dtlBean);
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " parts.");
-	for (DigitalEntity b : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
-	    updatePart(b);
-	}
-	logger.info(pid + " " + "updated.\n");
+	logger.info(pid + " Found " + list.size() + " parts.");
+	return list;
     }
 
     protected void includeDataStreamIfAvailable(DigitalEntity dtlBean) {
@@ -373,7 +395,7 @@ public class EdowebIngester implements IngestInterface {
 	}
     }
 
-    private void updateJournal(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateJournal(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	try {
 	    List<DigitalEntity> list = getParts(dtlBean);
@@ -383,16 +405,11 @@ public class EdowebIngester implements IngestInterface {
 		    list.stream().map((DigitalEntity d) -> d.getPid())
 			    .collect(Collectors.toList()));
 
-	    int numOfVols = list.size();
-	    int count = 1;
-	    logger.info(pid + " Found " + numOfVols + " parts.");
-	    for (DigitalEntity b : list) {
-		logger.info("Part: " + (count++) + "/" + numOfVols);
-		updatePart(b);
-	    }
-	    logger.info(pid + " " + "and all volumes updated.\n");
+	    logger.info(pid + " Found " + list.size() + " parts.");
+	    return list;
 	} catch (Exception e) {
 	    logger.error(pid + " " + e.getMessage());
+	    return new Vector<DigitalEntity>();
 	}
     }
 
@@ -409,7 +426,7 @@ public class EdowebIngester implements IngestInterface {
 	}
     }
 
-    private void updateJournalParent(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateJournalParent(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	try {
 	    logger.info(pid + " Found ejournal.");
@@ -424,10 +441,10 @@ public class EdowebIngester implements IngestInterface {
 	} catch (Exception e) {
 	    logger.error(pid + " " + e.getMessage());
 	}
-
+	return new Vector<DigitalEntity>();
     }
 
-    private void updateWebpageParent(DigitalEntity dtlBean) {
+    private List<DigitalEntity> updateWebpageParent(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	try {
 	    logger.info(pid + " Found webpage.");
@@ -442,7 +459,7 @@ public class EdowebIngester implements IngestInterface {
 	} catch (Exception e) {
 	    logger.info(pid + " " + e.getMessage());
 	}
-
+	return new Vector<DigitalEntity>();
     }
 
     protected List<DigitalEntity> getParts(DigitalEntity dtlBean) {
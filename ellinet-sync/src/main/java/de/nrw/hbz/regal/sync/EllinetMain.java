@@ -37,7 +37,7 @@ public class EllinetMain {
      */
     public static void main(String[] args) {
 	Syncer syncer = new Syncer(new EllinetIngester(),
-		new DigitoolDownloader(), new EllinetDigitalEntityBuilder());
+		new DigitoolDownloader(), EllinetDigitalEntityBuilder::new);
 	syncer.main(args);
     }
 }
\ No newline at end of file
@@ -33,15 +33,6 @@ import de.nrw.hbz.regal.sync.extern.DigitalEntity;
 public class EllinetIngester extends EdowebIngester {
     final static Logger logger = LoggerFactory.getLogger(EllinetIngester.class);
 
-    @Override
-    public void init(String host, String user, String password, String ns,
-	    KeystoreConf kconf) {
-	this.namespace = ns;
-	this.host = host;
-	webclient = new Webclient(namespace, user, password, host, kconf);
-	webclient.initContentModels(namespace);
-    }
-
     @Override
     public void ingest(DigitalEntity dtlBean) {
 	logger.info("Start ingest: " + namespace + ":" + dtlBean.getPid());
@@ -54,7 +45,7 @@ public class EllinetIngester extends EdowebIngester {
 
 	    if (partitionC.compareTo("HSS00DZM") == 0) {
 		logger.info(pid + ": start ingesting ellinetObject");
-		updateMonographs(dtlBean);
+		ingestTree(dtlBean, this::updateMonographs, this::updatePart);
 		logger.info(pid + ": end ingesting eJournal");
 	    } else {
 		logger.warn("Unknown type: " + partitionC
@@ -68,7 +59,7 @@ public class EllinetIngester extends EdowebIngester {
     }
 
     @Override
-    protected void updateMonographs(DigitalEntity dtlBean) {
+    protected List<DigitalEntity> updateMonographs(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	webclient.createResource(ObjectType.monograph, dtlBean);
 	webclient.autoGenerateMetdata(dtlBean);
@@ -76,14 +67,8 @@ public class EllinetIngester extends EdowebIngester {
 	webclient.makeOaiSet(dtlBean);
 	includeDataStreamIfAvailable(dtlBean);
 	List<DigitalEntity> list = getParts(dtlBean);
-	int num = list.size();
-	int count = 1;
-	logger.info(pid + " Found " + num + " parts.");
-	for (DigitalEntity b : list) {
-	    logger.info("Part: " + (count++) + "/" + num);
-	    updatePart(b);
-	}
-	logger.info(pid + " " + "updated.\n");
+	logger.info(pid + " Found " + list.size() + " parts.");
+	return list;
     }
 
     @Override
@@ -36,7 +36,7 @@ public class OpusMain {
      */
     public static void main(String[] args) {
 	Syncer syncer = new Syncer(new OpusIngester(), new OpusDownloader(),
-		new OpusDigitalEntityBuilder());
+		OpusDigitalEntityBuilder::new);
 	syncer.main(args);
     }
 }
@@ -28,7 +28,6 @@ import org.w3c.dom.NodeList;
 import archive.fedora.XmlUtils;
 import de.nrw.hbz.regal.sync.extern.DigitalEntity;
 import de.nrw.hbz.regal.sync.extern.DigitalEntityBuilderInterface;
-import de.nrw.hbz.regal.sync.extern.Md5Checksum;
 import de.nrw.hbz.regal.sync.extern.StreamType;
 
 /**
@@ -122,8 +121,7 @@ public class OpusDigitalEntityBuilder implements DigitalEntityBuilderInterface {
     }
 
     private String getMd5(File stream) {
-	Md5Checksum md5 = new Md5Checksum();
-	return md5.getMd5Checksum(stream);
+	return Md5Sidecar.get(stream);
     }
 
 }
@@ -18,13 +18,9 @@ package de.nrw.hbz.regal.sync.ingest;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.Vector;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -57,9 +53,10 @@ public class OpusDownloader extends Downloader {
 
 	} catch (MalformedURLException e) {
 	    logger.error(e.getMessage());
-
+	    throw new DownloadException(e);
 	} catch (IOException e) {
 	    logger.warn("", e);
+	    throw new DownloadException(e);
 	}
 
     }
@@ -68,18 +65,14 @@ public class OpusDownloader extends Downloader {
 
 	String url = server + pid;
 	logger.info("Download: " + url);
-	URL dataStreamUrl = new URL(url);
 	File dataStreamFile = new File(dir.getAbsolutePath() + File.separator
 		+ "" + pid + ".xml");
 	// dataStreamFile.createNewFile();
 
 	logger.info("Save: " + dataStreamFile.getAbsolutePath());
 
-	String data = null;
-	StringWriter writer = new StringWriter();
-	IOUtils.copy(dataStreamUrl.openStream(), writer);
-	data = writer.toString();
-	FileUtils.writeStringToFile(dataStreamFile, data, "utf-8");
+	String data = getTransport().getString(url, "utf-8");
+	writeText(dataStreamFile, data);
     }
 
     private void downloadPdfs(File dir, String pid) {
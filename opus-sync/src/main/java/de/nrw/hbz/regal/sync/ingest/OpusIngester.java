@@ -16,7 +16,9 @@
  */
 package de.nrw.hbz.regal.sync.ingest;
 
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import models.ObjectType;
 
@@ -45,14 +47,23 @@ public class OpusIngester implements IngestInterface {
     private String namespace = "opus";
     String host = null;
     Webclient webclient = null;
-    HashMap<String, String> map = new HashMap<String, String>();
+    IngestScheduler scheduler = new IngestScheduler(0);
+    Map<String, String> map = new ConcurrentHashMap<String, String>();
 
     @Override
     public void init(String host, String user, String password, String ns,
 	    KeystoreConf kconf) {
+	init(host, user, password, ns, kconf, new WebclientConf());
+    }
+
+    @Override
+    public void init(String host, String user, String password, String ns,
+	    KeystoreConf kconf, WebclientConf wconf) {
 	this.namespace = ns;
 	this.host = host;
-	webclient = new Webclient(namespace, user, password, host, kconf);
+	webclient = new Webclient(namespace, user, password, host, kconf,
+		wconf);
+	scheduler = new IngestScheduler(wconf.partThreads);
     }
 
     @Override
@@ -76,15 +87,16 @@ public class OpusIngester implements IngestInterface {
 
 	map.clear();
 	try {
-	    webclient.createObject(dtlBean, ObjectType.monograph);
-	    logger.info(pid + " " + "updated.\n");
 	    OpusMapping mapper = new OpusMapping();
 	    String metadata = mapper.map(
 		    dtlBean.getStream(StreamType.xMetaDissPlus).getFile(),
 		    namespace + ":" + dtlBean.getPid());
-
-	    webclient.autoGenerateMetadataMerge(dtlBean, metadata);
-	    webclient.makeOaiSet(dtlBean);
+	    List<String> failed = webclient.batch(scheduler, dtlBean,
+		    new WebclientSteps(webclient, ObjectType.monograph,
+			    metadata));
+	    if (failed.isEmpty()) {
+		logger.info(pid + " " + "updated.\n");
+	    }
 	} catch (IllegalArgumentException e) {
 	    logger.debug(e.getMessage());
 	}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ChecksumCache remembers the MD5 checksums of the files in the cache
+ * directory. It is an append-only file .checksums in the cache directory
+ * with a line
+ * 
+ * <pre>
+ * path	size	lastModified	md5
+ * </pre>
+ * 
+ * for each file that has been hashed. An entry is only used while size and
+ * last modification time of the file are unchanged, so a file that is
+ * downloaded again is hashed again. The last line of a path wins.
+ * 
+ * When the file is opened, entries of files that have been deleted or
+ * changed since are dropped. If less than half of the lines are still
+ * valid, the file is rewritten with the valid entries only, so it stays at
+ * most twice as long as the number of cached files. Without an open file
+ * the checksums are kept in memory only.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+public class ChecksumCache {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public static class ChecksumCacheException extends RuntimeException {
+	public ChecksumCacheException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(ChecksumCache.class);
+
+    static final String FILE_NAME = ".checksums";
+
+    private static final ChecksumCache shared = new ChecksumCache();
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private File file = null;
+    private BufferedWriter writer = null;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return the cache shared by downloaders and builders
+     */
+    public static ChecksumCache getDefault() {
+	return shared;
+    }
+
+    /**
+     * Reads the checksums of a cache directory. New checksums are appended
+     * to its file.
+     * 
+     * @param directory
+     *            the cache directory
+     */
+    public synchronized void open(File directory) {
+	close();
+	entries.clear();
+	file = new File(directory, FILE_NAME);
+	try {
+	    int lines = file.exists() ? load() : 0;
+	    prune();
+	    if (lines > 2 * entries.size()) {
+		compact();
+	    }
+	    file.getParentFile().mkdirs();
+	    writer = new BufferedWriter(new FileWriter(file, true));
+	} catch (IOException e) {
+	    throw new ChecksumCacheException(e);
+	}
+    }
+
+    /**
+     * Closes the file. The checksums read so far stay in memory.
+     */
+    public synchronized void close() {
+	if (writer == null)
+	    return;
+	try {
+	    writer.close();
+	} catch (IOException e) {
+	    logger.warn("Can not close " + file + ": " + e.getMessage());
+	}
+	writer = null;
+    }
+
+    /**
+     * @param f
+     *            a file
+     * @return the checksum of the file or null if it is unknown or the file
+     *         has changed since it was hashed
+     */
+    public String get(File f) {
+	Entry entry = entries.get(f.getAbsolutePath());
+	if (entry == null || !entry.matches(f)) {
+	    misses.incrementAndGet();
+	    return null;
+	}
+	hits.incrementAndGet();
+	return entry.md5;
+    }
+
+    /**
+     * @param f
+     *            a file that has just been hashed
+     * @param md5
+     *            the checksum of the file
+     */
+    public void put(File f, String md5) {
+	String path = f.getAbsolutePath();
+	Entry entry = new Entry(f.length(), f.lastModified(), md5);
+	Entry old = entries.put(path, entry);
+	if (entry.equals(old))
+	    return;
+	append(path, entry);
+    }
+
+    private synchronized void append(String path, Entry entry) {
+	if (writer == null)
+	    return;
+	try {
+	    writer.write(path + "\t" + entry);
+	    writer.newLine();
+	    writer.flush();
+	} catch (IOException e) {
+	    logger.warn("Can not write " + file + ": " + e.getMessage());
+	}
+    }
+
+    private int load() throws IOException {
+	int lines = 0;
+	try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+	    String line = null;
+	    while ((line = reader.readLine()) != null) {
+		lines++;
+		String[] fields = line.split("\t");
+		if (fields.length != 4) {
+		    // last line of a crashed run
+		    continue;
+		}
+		try {
+		    entries.put(fields[0], new Entry(Long.parseLong(fields[1]),
+			    Long.parseLong(fields[2]), fields[3]));
+		} catch (NumberFormatException e) {
+		    continue;
+		}
+	    }
+	}
+	logger.info("Read " + entries.size() + " checksums from "
+		+ file.getAbsolutePath());
+	return lines;
+    }
+
+    private void prune() {
+	int before = entries.size();
+	entries.entrySet().removeIf(e -> !e.getValue().matches(
+		new File(e.getKey())));
+	if (entries.size() < before) {
+	    logger.info("Dropped " + (before - entries.size())
+		    + " checksums of deleted or changed files");
+	}
+    }
+
+    /**
+     * @return number of cached checksums
+     */
+    int size() {
+	return entries.size();
+    }
+
+    private void compact() throws IOException {
+	File tmp = new File(file.getPath() + ".tmp");
+	try (BufferedWriter out = new BufferedWriter(new FileWriter(tmp))) {
+	    for (Map.Entry<String, Entry> e : entries.entrySet()) {
+		out.write(e.getKey() + "\t" + e.getValue());
+		out.newLine();
+	    }
+	}
+	Files.move(tmp.toPath(), file.toPath(),
+		StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public String toString() {
+	return "checksums " + hits.get() + " cached/" + misses.get()
+		+ " missed";
+    }
+
+    private static class Entry {
+	final long size;
+	final long lastModified;
+	final String md5;
+
+	Entry(long size, long lastModified, String md5) {
+	    this.size = size;
+	    this.lastModified = lastModified;
+	    this.md5 = md5;
+	}
+
+	boolean matches(File f) {
+	    return f.isFile() && size == f.length()
+		    && lastModified == f.lastModified();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+	    if (!(o instanceof Entry))
+		return false;
+	    Entry e = (Entry) o;
+	    return size == e.size && lastModified == e.lastModified
+		    && md5.equals(e.md5);
+	}
+
+	@Override
+	public int hashCode() {
+	    return md5.hashCode();
+	}
+
+	@Override
+	public String toString() {
+	    return size + "\t" + lastModified + "\t" + md5;
+	}
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+/**
+ * The outcome of a single call to DownloaderInterface.fetch. Instances are
+ * immutable and can be passed between threads.
+ *
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ *
+ */
+public class DownloadResult {
+
+    /**
+     * What happened to the object directory
+     */
+    public enum Status {
+	/**
+	 * The object was not in the cache and has been downloaded
+	 */
+	NEW,
+	/**
+	 * The object was in the cache and has been downloaded again
+	 */
+	UPDATED,
+	/**
+	 * The object was in the cache and has not been touched
+	 */
+	SKIPPED,
+	/**
+	 * The download ended with an exception
+	 */
+	FAILED
+    }
+
+    private final String directory;
+    private final Status status;
+    private final long bytes;
+    private final long duration;
+    private final Throwable cause;
+
+    /**
+     * @param directory
+     *            the directory where the object has been stored
+     * @param status
+     *            what happened to the object directory
+     * @param bytes
+     *            size of the object directory after the download
+     * @param duration
+     *            time spent in milliseconds
+     * @param cause
+     *            the reason of a failed download, otherwise null
+     */
+    public DownloadResult(String directory, Status status, long bytes,
+	    long duration, Throwable cause) {
+	this.directory = directory;
+	this.status = status;
+	this.bytes = bytes;
+	this.duration = duration;
+	this.cause = cause;
+    }
+
+    /**
+     * @return the directory where the object has been stored
+     */
+    public String getDirectory() {
+	return directory;
+    }
+
+    /**
+     * @return what happened to the object directory
+     */
+    public Status getStatus() {
+	return status;
+    }
+
+    /**
+     * @return size of the object directory after the download
+     */
+    public long getBytes() {
+	return bytes;
+    }
+
+    /**
+     * @return time spent in milliseconds
+     */
+    public long getDuration() {
+	return duration;
+    }
+
+    /**
+     * @return the reason of a failed download, otherwise null
+     */
+    public Throwable getCause() {
+	return cause;
+    }
+
+    /**
+     * @return true if an object from the cache has been downloaded again
+     */
+    public boolean isUpdated() {
+	return status == Status.UPDATED;
+    }
+
+    /**
+     * @return true if data has been downloaded
+     */
+    public boolean isDownloaded() {
+	return status == Status.NEW || status == Status.UPDATED;
+    }
+
+    @Override
+    public String toString() {
+	return directory + ", " + status + ", " + bytes + " bytes, "
+		+ duration + " ms";
+    }
+}
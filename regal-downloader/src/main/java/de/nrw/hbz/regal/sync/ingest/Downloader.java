@@ -24,26 +24,32 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.nrw.hbz.regal.PIDReporter;
+import de.nrw.hbz.regal.sync.ingest.DownloadResult.Status;
 
 /**
  * 
@@ -186,14 +192,31 @@ public abstract class Downloader implements DownloaderInterface {
 	    .getLogger(Downloader.class);
     String downloadLocation = null;
     String server = null;
-    boolean updated = false;
-    boolean downloaded = false;
-    HashMap<String, String> map = new HashMap<String, String>();
+    Set<String> visited = ConcurrentHashMap.newKeySet();
+    ThreadLocal<DownloadResult> lastResult = new ThreadLocal<DownloadResult>();
+    private HttpTransport transport = HttpTransport.getDefault();
+    private final Map<String, PidLock> locks = new HashMap<String, PidLock>();
+
+    /*
+     * A lock is dropped from locks, when no thread holds or waits for it
+     */
+    @SuppressWarnings("serial")
+    private static class PidLock extends ReentrantLock {
+	int users = 0;
+    }
+
+    static final String MANIFEST_SUFFIX = ".manifest";
+    static final String DATESTAMP = "datestamp";
 
     /**
      * Please implement this to download a single object. The method will be
      * called for each object pid provided by the regal framework. The method is
-     * called from download(pid,force).
+     * called from download(pid,force). It can be called from several threads
+     * at once, but never twice at the same time for the same pid: the calling
+     * thread holds the lock of the pid. An implementation that downloads a
+     * related object into the directory of the related pid must hold its
+     * lock, too, see tryLock(pid). If the object can not be downloaded, the
+     * method must throw an exception. The download directory is deleted then.
      * 
      * @param downloadDirectory
      *            The directory does already exist and is empty. The object can
@@ -210,34 +233,110 @@ public abstract class Downloader implements DownloaderInterface {
 
     @Override
     public String download(String pid, boolean forceDownload) {
-	if (map.containsKey(pid))
+	return fetch(pid, forceDownload).getDirectory();
+    }
+
+    @Override
+    public DownloadResult fetch(String pid, boolean forceDownload) {
+	return fetch(pid, forceDownload, null);
+    }
+
+    @Override
+    public DownloadResult fetch(String pid, boolean forceDownload,
+	    String datestamp) {
+	return fetch(pid, forceDownload, datestamp, true);
+    }
+
+    @Override
+    public DownloadResult fetch(String pid, boolean forceDownload,
+	    String datestamp, boolean skipCurrent) {
+	if (!visited.add(pid))
 	    throw new AlreadyVisitedException(pid + " already visited!");
-	String objectDirectory = null;
+	// waits for a related download of the pid by another thread
+	lock(pid);
 	try {
-	    objectDirectory = downloadLocation + File.separator
-		    + URLEncoder.encode(pid, "utf-8");
-	} catch (UnsupportedEncodingException e1) {
-	    throw new EncodingException(e1);
+	    DownloadResult result = fetchObject(pid, forceDownload, datestamp,
+		    skipCurrent);
+	    lastResult.set(result);
+	    logger.debug(pid + " " + result);
+	    return result;
+	} finally {
+	    unlock(pid);
+	    visited.remove(pid);
+	}
+    }
+
+    /*
+     * Waits for the lock of the directory of the pid in the download location.
+     * Only fetch may wait, a thread that holds the lock of another pid must
+     * use tryLock(pid), so two threads can not wait for each other.
+     */
+    private void lock(String pid) {
+	use(pid).lock();
+    }
+
+    /**
+     * Takes the lock of the directory of the pid in the download location,
+     * if no other thread holds it. A downloader must hold the lock while it
+     * writes a related object into the directory of the related pid.
+     * 
+     * @param pid
+     *            the pid of an object
+     * @return false if another thread downloads the object
+     */
+    protected boolean tryLock(String pid) {
+	PidLock lock = use(pid);
+	if (lock.tryLock())
+	    return true;
+	release(pid, lock);
+	return false;
+    }
+
+    /**
+     * @param pid
+     *            the pid of an object whose lock the thread holds
+     */
+    protected void unlock(String pid) {
+	PidLock lock;
+	synchronized (locks) {
+	    lock = locks.get(pid);
+	}
+	lock.unlock();
+	release(pid, lock);
+    }
+
+    private PidLock use(String pid) {
+	synchronized (locks) {
+	    PidLock lock = locks.computeIfAbsent(pid, p -> new PidLock());
+	    lock.users++;
+	    return lock;
+	}
+    }
+
+    private void release(String pid, PidLock lock) {
+	synchronized (locks) {
+	    if (--lock.users == 0)
+		locks.remove(pid);
 	}
-	File dir = new File(objectDirectory);
+    }
+
+    private DownloadResult fetchObject(String pid, boolean forceDownload,
+	    String datestamp, boolean skipCurrent) {
+	File dir = new File(getObjectDirectory(pid));
+	File manifest = new File(getObjectDirectory(pid) + MANIFEST_SUFFIX);
+	Status status = null;
 	if (!dir.exists()) {
 	    logger.info("Create Directory " + dir.getAbsoluteFile()
 		    + " and start to Download files");
 	    dir.mkdirs();
-
-	    try {
-		if (!map.containsKey(pid)) {
-		    map.put(pid, pid);
-
-		} else {
-		    throw new AlreadyVisitedException(pid + " already visited!");
-		}
-		downloadObject(dir, pid);
-	    } catch (Exception e) {
-		logger.debug(e.getMessage());
-	    }
-	    setUpdated(false);
-	    setDownloaded(true);
+	    status = Status.NEW;
+	} else if (forceDownload && skipCurrent
+		&& isCurrent(manifest, datestamp)) {
+	    logger.info("Directory " + dir.getAbsoluteFile()
+		    + " exists and is up to date with " + datestamp
+		    + ". Step over.");
+	    return new DownloadResult(dir.getAbsolutePath(), Status.SKIPPED,
+		    0, 0, null);
 	} else if (forceDownload) {
 	    logger.info("Directory " + dir.getAbsoluteFile()
 		    + " exists. Force override.");
@@ -247,39 +346,90 @@ public abstract class Downloader implements DownloaderInterface {
 		throw new DeleteDirectoryException(e1);
 	    }
 	    dir.mkdirs();
-
-	    try {
-		if (!map.containsKey(pid)) {
-		    map.put(pid, pid);
-
-		} else {
-		    throw new AlreadyVisitedException(pid + " already visited!");
-		}
-		downloadObject(dir, pid);
-	    } catch (Exception e) {
-		logger.debug(e.getMessage());
-	    }
-
-	    setUpdated(true);
-	    setDownloaded(true);
+	    status = Status.UPDATED;
 	} else {
 	    logger.info("Directory " + dir.getAbsoluteFile()
 		    + " exists. Step over.");
-	    setDownloaded(false);
-	    setUpdated(false);
+	    return new DownloadResult(dir.getAbsolutePath(), Status.SKIPPED,
+		    0, 0, null);
+	}
+	long start = System.currentTimeMillis();
+	Throwable cause = null;
+	manifest.delete();
+	try {
+	    downloadObject(dir, pid);
+	    if (datestamp != null)
+		writeManifest(manifest, datestamp);
+	} catch (Exception e) {
+	    logger.debug(e.getMessage());
+	    status = Status.FAILED;
+	    cause = e;
+	}
+	long size = FileUtils.sizeOfDirectory(dir);
+	if (status == Status.FAILED) {
+	    // a partial download must not pass for a cached one in CONT mode
+	    FileUtils.deleteQuietly(dir);
+	}
+	long duration = System.currentTimeMillis() - start;
+	return new DownloadResult(dir.getAbsolutePath(), status, size,
+		duration, cause);
+    }
+
+    /*
+     * The manifest lies next to the object directory, so it survives the
+     * deletion of the directory and is not part of the object.
+     */
+    private boolean isCurrent(File manifest, String datestamp) {
+	if (datestamp == null || !manifest.exists())
+	    return false;
+	Properties properties = new Properties();
+	try (InputStream in = new FileInputStream(manifest)) {
+	    properties.load(in);
+	} catch (IOException e) {
+	    logger.warn("Can not read " + manifest + ": " + e.getMessage());
+	    return false;
+	}
+	String fetched = properties.getProperty(DATESTAMP);
+	// OAI datestamps of one repository have the same granularity
+	return fetched != null && fetched.compareTo(datestamp) >= 0;
+    }
+
+    private void writeManifest(File manifest, String datestamp)
+	    throws IOException {
+	Properties properties = new Properties();
+	properties.setProperty(DATESTAMP, datestamp);
+	try (OutputStream out = new FileOutputStream(manifest)) {
+	    properties.store(out, "Last fetched OAI datestamp");
 	}
-	map.clear();
-	return dir.getAbsolutePath();
     }
 
+    private String getObjectDirectory(String pid) {
+	try {
+	    return downloadLocation + File.separator
+		    + URLEncoder.encode(pid, "utf-8");
+	} catch (UnsupportedEncodingException e1) {
+	    throw new EncodingException(e1);
+	}
+    }
+
+    /**
+     * @deprecated use the result of fetch(pid,force)
+     */
+    @Deprecated
     @Override
     public boolean hasUpdated() {
-	return updated;
+	DownloadResult result = lastResult.get();
+	return result != null && result.isUpdated();
     }
 
+    /**
+     * @deprecated use the result of fetch(pid,force)
+     */
+    @Deprecated
     @Override
     public boolean hasDownloaded() {
-	return downloaded;
+	DownloadResult result = lastResult.get();
+	return result != null && result.isDownloaded();
     }
 
     @Override
@@ -321,32 +471,99 @@ public abstract class Downloader implements DownloaderInterface {
     }
 
     /**
-     * @return a map to remember which objects are already download
+     * @return the pids that are currently downloaded. A pid is removed as soon
+     *         as its download has finished.
      */
+    protected Set<String> getVisited() {
+	return visited;
+    }
+
+    /**
+     * @return a copy of the pids that are currently downloaded
+     * @deprecated use getVisited()
+     */
+    @Deprecated
     protected HashMap<String, String> getMap() {
+	HashMap<String, String> map = new HashMap<String, String>();
+	for (String pid : visited) {
+	    map.put(pid, pid);
+	}
 	return map;
     }
 
     /**
      * @param map
-     *            a map to remember which objects are already download
+     *            the keys become the pids that are currently downloaded
+     * @deprecated use getVisited()
      */
+    @Deprecated
     protected void setMap(HashMap<String, String> map) {
-	this.map = map;
+	visited.clear();
+	visited.addAll(map.keySet());
     }
 
     /**
-     * @return if an existing object was updated
+     * @return if the last download of the calling thread has updated an
+     *         existing object
+     * @deprecated use the result of fetch(pid,force)
      */
+    @Deprecated
     protected boolean isUpdated() {
-	return updated;
+	return hasUpdated();
     }
 
     /**
-     * @return if an existing object was downloaded
+     * @return if the last download of the calling thread has downloaded
+     *         something
+     * @deprecated use the result of fetch(pid,force)
      */
+    @Deprecated
     protected boolean isDownloaded() {
-	return downloaded;
+	return hasDownloaded();
+    }
+
+    /**
+     * @param updated
+     *            if an object was updated
+     * @deprecated the status is taken from the result of fetch(pid,force)
+     */
+    @Deprecated
+    protected void setUpdated(boolean updated) {
+	setLastStatus(updated, hasDownloaded() || updated);
+    }
+
+    /**
+     * @param downloaded
+     *            if something has been downloaded
+     * @deprecated the status is taken from the result of fetch(pid,force)
+     */
+    @Deprecated
+    protected void setDownloaded(boolean downloaded) {
+	setLastStatus(downloaded && hasUpdated(), downloaded);
+    }
+
+    private void setLastStatus(boolean updated, boolean downloaded) {
+	DownloadResult last = lastResult.get();
+	Status status = updated ? Status.UPDATED : downloaded ? Status.NEW
+		: Status.SKIPPED;
+	lastResult.set(last == null ? new DownloadResult(null, status, 0, 0,
+		null) : new DownloadResult(last.getDirectory(), status,
+		last.getBytes(), last.getDuration(), last.getCause()));
+    }
+
+    /**
+     * @return the transport all downloads go through
+     */
+    protected HttpTransport getTransport() {
+	return transport;
+    }
+
+    /**
+     * @param transport
+     *            the transport all downloads go through
+     */
+    public void setTransport(HttpTransport transport) {
+	this.transport = transport;
     }
 
     /**
@@ -398,9 +615,7 @@ public abstract class Downloader implements DownloaderInterface {
 		file.createNewFile();
 	    }
 
-	    try (OutputStream output = new FileOutputStream(file)) {
-		IOUtils.copy(dataStreamUrl.openStream(), output);
-	    }
+	    transport.copy(url, file);
 	} catch (Exception e) {
 	    throw new DownloadException(e);
 	}
@@ -414,15 +629,11 @@ public abstract class Downloader implements DownloaderInterface {
      */
     protected void download(File file, String url) {
 	try {
-	    URL dataStreamUrl = new URL(url);
-
 	    if (!file.exists()) {
 		file.getParentFile().mkdirs();
 		file.createNewFile();
 	    }
-	    try (OutputStream output = new FileOutputStream(file)) {
-		IOUtils.copy(dataStreamUrl.openStream(), output);
-	    }
+	    transport.copy(url, file);
 	} catch (Exception e) {
 	    throw new DownloadException(e);
 	}
@@ -436,11 +647,8 @@ public abstract class Downloader implements DownloaderInterface {
      */
     protected void downloadText(File file, URL url) {
 	try {
-	    String data = null;
-	    StringWriter writer = new StringWriter();
-	    IOUtils.copy(url.openStream(), writer);
-	    data = writer.toString();
-	    FileUtils.writeStringToFile(file, data, "utf-8");
+	    String data = transport.getString(url.toString(), "utf-8");
+	    writeText(file, data);
 	} catch (MalformedURLException e) {
 	    throw new DownloadException(e);
 	} catch (IOException e) {
@@ -449,6 +657,26 @@ public abstract class Downloader implements DownloaderInterface {
     }
 
     /**
+     * Writes the text and its Md5Sidecar
+     * 
+     * @param file
+     *            the utf-8 text will be written to this file
+     * @param text
+     *            a text
+     * @throws IOException
+     *             if the file can not be written
+     */
+    protected void writeText(File file, String text) throws IOException {
+	byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+	FileUtils.writeByteArrayToFile(file, bytes);
+	Md5Sidecar.write(file,
+		Md5Sidecar.hex(Md5Sidecar.newDigest().digest(bytes)));
+    }
+
+    /**
+     * Zips a directory without the Md5Sidecars of its files. The checksum of
+     * the zip file is written to its own sidecar.
+     * 
      * @param directory
      *            the directory will be zipped
      * @param zipfile
@@ -456,9 +684,9 @@ public abstract class Downloader implements DownloaderInterface {
      */
     @SuppressWarnings("resource")
     protected void zip(File directory, File zipfile) {
-
-	try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(
-		zipfile))) {
+	MessageDigest digest = Md5Sidecar.newDigest();
+	try (ZipOutputStream zout = new ZipOutputStream(new DigestOutputStream(
+		new FileOutputStream(zipfile), digest))) {
 	    URI base = directory.toURI();
 	    Deque<File> queue = new LinkedList<File>();
 	    queue.push(directory);
@@ -466,6 +694,9 @@ public abstract class Downloader implements DownloaderInterface {
 	    while (!queue.isEmpty()) {
 		directory = queue.pop();
 		for (File kid : directory.listFiles()) {
+		    if (Md5Sidecar.isSidecar(kid) || kid.getName().endsWith(
+			    HttpTransport.PART_SUFFIX))
+			continue;
 		    String name = base.relativize(kid.toURI()).getPath();
 		    if (kid.isDirectory()) {
 			queue.push(kid);
@@ -481,6 +712,7 @@ public abstract class Downloader implements DownloaderInterface {
 	} catch (IOException e) {
 	    throw new ZipDownloaderException(e);
 	}
+	Md5Sidecar.write(zipfile, Md5Sidecar.hex(digest.digest()));
     }
 
     /**
@@ -550,20 +782,4 @@ public abstract class Downloader implements DownloaderInterface {
 	}
     }
 
-    /**
-     * @param downloaded
-     *            if something has been downloaded
-     */
-    protected void setDownloaded(boolean downloaded) {
-	this.downloaded = downloaded;
-    }
-
-    /**
-     * @param updated
-     *            if an object was updated
-     */
-    protected void setUpdated(boolean updated) {
-	this.updated = updated;
-    }
-
 }
@@ -46,14 +46,76 @@ public interface DownloaderInterface {
     public abstract String download(String pid, boolean forceDownload)
 	    throws IOException;
 
+    /**
+     * Like download(pid,forceDownload), but the outcome is returned to the
+     * caller instead of being kept in the downloader. Can be called from
+     * several threads at once.
+     * 
+     * @param pid
+     *            a valid digitool pid
+     * @param forceDownload
+     *            if true the data will be downloaded. if false the data will
+     *            only be downloaded if isn't there yet
+     * @return the outcome of the download
+     * @throws IOException
+     *             if something goes wrong
+     */
+    public abstract DownloadResult fetch(String pid, boolean forceDownload)
+	    throws IOException;
+
+    /**
+     * Like fetch(pid,forceDownload), but a forced download is skipped if the
+     * object has already been fetched with the given datestamp or a newer
+     * one. The datestamp is recorded with each download.
+     * 
+     * @param pid
+     *            a valid digitool pid
+     * @param forceDownload
+     *            if true the data will be downloaded unless it is up to date.
+     *            if false the data will only be downloaded if isn't there yet
+     * @param datestamp
+     *            the OAI datestamp of the object or null if unknown
+     * @return the outcome of the download
+     * @throws IOException
+     *             if something goes wrong
+     */
+    public abstract DownloadResult fetch(String pid, boolean forceDownload,
+	    String datestamp) throws IOException;
+
+    /**
+     * Like fetch(pid,forceDownload,datestamp), but a forced download of an
+     * up to date object is only skipped if skipCurrent is true. The datestamp
+     * is recorded with each download either way.
+     * 
+     * @param pid
+     *            a valid digitool pid
+     * @param forceDownload
+     *            if true the data will be downloaded. if false the data will
+     *            only be downloaded if isn't there yet
+     * @param datestamp
+     *            the OAI datestamp of the object or null if unknown
+     * @param skipCurrent
+     *            if true a forced download is skipped if the object has
+     *            already been fetched with the datestamp or a newer one
+     * @return the outcome of the download
+     * @throws IOException
+     *             if something goes wrong
+     */
+    public abstract DownloadResult fetch(String pid, boolean forceDownload,
+	    String datestamp, boolean skipCurrent) throws IOException;
+
     /**
      * @return true if the downloader has updated an existing dataset
+     * @deprecated use the result of fetch(pid,forceDownload)
      */
+    @Deprecated
     public abstract boolean hasUpdated();
 
     /**
      * @return true if data has been downloaded
+     * @deprecated use the result of fetch(pid,forceDownload)
      */
+    @Deprecated
     public abstract boolean hasDownloaded();
 
     /**
@@ -0,0 +1,476 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * All downloads go through the HttpTransport. It sets connect and read
+ * timeouts, limits the number of concurrent requests per host and always
+ * reads and closes a response, so the JDK can keep the connection alive and
+ * reuse it for the next request to the same host. The JDK keeps up to
+ * http.maxConnections idle connections per host. If the property is not set,
+ * the HttpTransport sets it to its own limit when the class is loaded.
+ * Requests that fail with a timeout, a lost connection or a 408, 429 or 5xx
+ * status are retried according to the RetryPolicy. Each request, including a
+ * retry, waits for the RateLimits of its host.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class HttpTransport {
+
+    /**
+     * Reads a response body
+     * 
+     * @param <T>
+     *            the result of the handler
+     */
+    public interface ResponseHandler<T> {
+	/**
+	 * @param in
+	 *            the response body. It is closed by the HttpTransport.
+	 * @return the result of the handler
+	 * @throws IOException
+	 *             if the body can not be read
+	 */
+	T handle(InputStream in) throws IOException;
+    }
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class StatusException extends IOException {
+	private final int status;
+
+	public StatusException(String url, int status) {
+	    super(url + " returned status " + status);
+	    this.status = status;
+	}
+
+	public int getStatus() {
+	    return status;
+	}
+    }
+
+    /*
+     * Reads a response body and its headers
+     */
+    private interface ConnectionHandler<T> {
+	T handle(URLConnection con, InputStream in) throws IOException;
+    }
+
+    /*
+     * The state of a copy, kept across its retries
+     */
+    private static class Transfer {
+	String validator = null;
+	MessageDigest digest = Md5Sidecar.newDigest();
+	long digested = 0;
+
+	void rehash(File part) throws IOException {
+	    digest.reset();
+	    digested = 0;
+	    byte[] buffer = new byte[BUFFER_SIZE];
+	    try (InputStream in = new FileInputStream(part)) {
+		int n;
+		while ((n = in.read(buffer)) != -1) {
+		    digest.update(buffer, 0, n);
+		    digested += n;
+		}
+	    }
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(HttpTransport.class);
+
+    /**
+     * Suffix of a file that is not completely downloaded yet
+     */
+    public static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Map<String, String> NO_HEADERS = Collections
+	    .emptyMap();
+
+    /**
+     * Default connect timeout in ms
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    /**
+     * Default read timeout in ms
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 120000;
+    /**
+     * Default number of concurrent requests per host
+     */
+    public static final int DEFAULT_CONNECTIONS_PER_HOST = 8;
+
+    private static final HttpTransport shared;
+
+    static {
+	if (System.getProperty("http.maxConnections") == null) {
+	    System.setProperty("http.maxConnections",
+		    String.valueOf(DEFAULT_CONNECTIONS_PER_HOST));
+	}
+	shared = new HttpTransport();
+    }
+
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile int connectionsPerHost = DEFAULT_CONNECTIONS_PER_HOST;
+    private final ConcurrentHashMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+    private volatile RetryPolicy retryPolicy = new RetryPolicy("download");
+    private volatile RateLimits rateLimits = RateLimits.getDefault();
+
+    /**
+     * @return the transport shared by all downloaders
+     */
+    public static HttpTransport getDefault() {
+	return shared;
+    }
+
+    /**
+     * Calls the handler with the body of a GET request
+     * 
+     * @param url
+     *            the url to get
+     * @param handler
+     *            reads the body
+     * @return the result of the handler
+     * @throws IOException
+     *             if the request fails or the status is not 2xx or 3xx
+     */
+    public <T> T get(String url, ResponseHandler<T> handler)
+	    throws IOException {
+	URL u = new URL(url);
+	return retryPolicy.call(
+		() -> request(u, NO_HEADERS, (con, in) -> handler.handle(in)),
+		HttpTransport::isTransient);
+    }
+
+    private <T> T request(URL u, Map<String, String> headers,
+	    ConnectionHandler<T> handler) throws IOException {
+	String url = u.toString();
+	rateLimits.acquire(u.getHost());
+	Semaphore permits = permits(u);
+	try {
+	    permits.acquire();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException(url);
+	}
+	try {
+	    URLConnection con = open(u);
+	    for (Map.Entry<String, String> header : headers.entrySet()) {
+		con.setRequestProperty(header.getKey(), header.getValue());
+	    }
+	    if (con instanceof HttpURLConnection) {
+		int status = ((HttpURLConnection) con).getResponseCode();
+		if (status >= 400) {
+		    discardError(con);
+		    throw new StatusException(url, status);
+		}
+	    }
+	    try (InputStream in = con.getInputStream()) {
+		return handler.handle(con, in);
+	    } catch (IOException e) {
+		discardError(con);
+		throw e;
+	    }
+	} finally {
+	    permits.release();
+	}
+    }
+
+    /**
+     * Downloads to a part file of its own, file.&lt;random&gt;.part, and
+     * renames it to file, when the body is complete. So two calls for the
+     * same file do not write into each other's part file, the last one to
+     * finish wins. If the connection breaks, the retry asks for the missing
+     * bytes only, provided the server has sent an ETag or Last-Modified
+     * header. The server sends the whole body again, if the resource has
+     * changed in between or does not support ranges. The MD5 checksum is
+     * computed on the way and written to the Md5Sidecar of the file.
+     * 
+     * @param url
+     *            the url to get
+     * @param file
+     *            the body is written to this file
+     * @return size of the file
+     * @throws IOException
+     *             if the request fails or the file can not be written
+     */
+    public long copy(String url, File file) throws IOException {
+	URL u = new URL(url);
+	File part = Files.createTempFile(
+		file.getAbsoluteFile().getParentFile().toPath(),
+		file.getName() + ".", PART_SUFFIX).toFile();
+	Transfer transfer = new Transfer();
+	long size;
+	try {
+	    size = retryPolicy.call(() -> copyOnce(u, part, transfer),
+		    HttpTransport::isTransient);
+	    Files.move(part.toPath(), file.toPath(),
+		    StandardCopyOption.REPLACE_EXISTING);
+	} finally {
+	    Files.deleteIfExists(part.toPath());
+	}
+	Md5Sidecar.write(file, Md5Sidecar.hex(transfer.digest.digest()));
+	return size;
+    }
+
+    private long copyOnce(URL u, File part, Transfer transfer)
+	    throws IOException {
+	long offset = part.length();
+	Map<String, String> headers = new HashMap<String, String>();
+	if (offset > 0 && transfer.validator != null) {
+	    logger.info(u + " resume at byte " + offset);
+	    headers.put("Range", "bytes=" + offset + "-");
+	    headers.put("If-Range", transfer.validator);
+	}
+	try {
+	    return request(u, headers, (con, in) -> {
+		boolean append = !headers.isEmpty() && status(con) == 206;
+		long expected = con.getContentLengthLong();
+		if (append) {
+		    expected = total(con.getHeaderField("Content-Range"));
+		    if (transfer.digested != part.length())
+			transfer.rehash(part);
+		} else {
+		    transfer.validator = validator(con);
+		    transfer.digest.reset();
+		    transfer.digested = 0;
+		}
+		try (OutputStream out = new FileOutputStream(part, append)) {
+		    byte[] buffer = new byte[BUFFER_SIZE];
+		    int n;
+		    while ((n = in.read(buffer)) != -1) {
+			out.write(buffer, 0, n);
+			// only bytes that have been written
+			transfer.digest.update(buffer, 0, n);
+			transfer.digested += n;
+		    }
+		}
+		long length = part.length();
+		if (expected >= 0 && length != expected) {
+		    // transient, the retry continues at length
+		    throw new IOException(u + " ended at byte " + length
+			    + " of " + expected);
+		}
+		return length;
+	    });
+	} catch (StatusException e) {
+	    if (e.getStatus() != 416)
+		throw e;
+	    // the part does not fit the resource, start again
+	    Files.deleteIfExists(part.toPath());
+	    transfer.validator = null;
+	    return copyOnce(u, part, transfer);
+	}
+    }
+
+    private static int status(URLConnection con) throws IOException {
+	return con instanceof HttpURLConnection ? ((HttpURLConnection) con)
+		.getResponseCode() : 200;
+    }
+
+    /*
+     * If-Range needs a strong ETag or a Last-Modified date
+     */
+    private static String validator(URLConnection con) {
+	String etag = con.getHeaderField("ETag");
+	if (etag != null && !etag.startsWith("W/"))
+	    return etag;
+	return con.getHeaderField("Last-Modified");
+    }
+
+    /*
+     * Content-Range: bytes 1000-4999/5000
+     */
+    private static long total(String contentRange) {
+	if (contentRange == null || contentRange.endsWith("/*"))
+	    return -1;
+	try {
+	    return Long.parseLong(contentRange.substring(contentRange
+		    .lastIndexOf('/') + 1));
+	} catch (NumberFormatException e) {
+	    return -1;
+	}
+    }
+
+    /**
+     * @param url
+     *            the url to get
+     * @param encoding
+     *            the encoding of the body
+     * @return the body as string
+     * @throws IOException
+     *             if the request fails
+     */
+    public String getString(String url, String encoding) throws IOException {
+	return get(url, in -> {
+	    StringWriter writer = new StringWriter();
+	    IOUtils.copy(in, writer, encoding);
+	    return writer.toString();
+	});
+    }
+
+    private URLConnection open(URL url) throws IOException {
+	URLConnection con = url.openConnection();
+	con.setConnectTimeout(connectTimeout);
+	con.setReadTimeout(readTimeout);
+	if (con instanceof HttpURLConnection) {
+	    ((HttpURLConnection) con).setInstanceFollowRedirects(true);
+	}
+	return con;
+    }
+
+    /*
+     * The connection can only be reused if the error body has been read.
+     */
+    private void discardError(URLConnection con) {
+	if (!(con instanceof HttpURLConnection))
+	    return;
+	try (InputStream err = ((HttpURLConnection) con).getErrorStream()) {
+	    if (err != null) {
+		IOUtils.skip(err, Long.MAX_VALUE);
+	    }
+	} catch (IOException e) {
+	    logger.debug("Can not read error body: " + e.getMessage());
+	}
+    }
+
+    private static boolean isTransient(Exception e) {
+	if (e instanceof StatusException) {
+	    int status = ((StatusException) e).getStatus();
+	    return status == 408 || status == 429 || status >= 500;
+	}
+	if (e instanceof SocketTimeoutException)
+	    return true;
+	if (e instanceof InterruptedIOException
+		|| e instanceof FileNotFoundException
+		|| e instanceof MalformedURLException)
+	    return false;
+	return e instanceof IOException;
+    }
+
+    private Semaphore permits(URL url) {
+	String host = url.getHost() + ":" + url.getPort();
+	return hosts.computeIfAbsent(host,
+		h -> new Semaphore(connectionsPerHost, true));
+    }
+
+    /**
+     * @param connectTimeout
+     *            connect timeout in ms, 0 waits forever
+     */
+    public void setConnectTimeout(int connectTimeout) {
+	this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @param readTimeout
+     *            read timeout in ms, 0 waits forever
+     */
+    public void setReadTimeout(int readTimeout) {
+	this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Must be set before the first request to a host.
+     * 
+     * @param connectionsPerHost
+     *            maximum number of concurrent requests per host
+     */
+    public void setConnectionsPerHost(int connectionsPerHost) {
+	this.connectionsPerHost = Math.max(1, connectionsPerHost);
+    }
+
+    /**
+     * @param retryPolicy
+     *            retries failed downloads
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+	this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return retries failed downloads
+     */
+    public RetryPolicy getRetryPolicy() {
+	return retryPolicy;
+    }
+
+    /**
+     * @param rateLimits
+     *            limits the request rate per host
+     */
+    public void setRateLimits(RateLimits rateLimits) {
+	this.rateLimits = rateLimits;
+    }
+
+    /**
+     * @return limits the request rate per host
+     */
+    public RateLimits getRateLimits() {
+	return rateLimits;
+    }
+
+    /**
+     * @return connect timeout in ms
+     */
+    public int getConnectTimeout() {
+	return connectTimeout;
+    }
+
+    /**
+     * @return read timeout in ms
+     */
+    public int getReadTimeout() {
+	return readTimeout;
+    }
+
+    /**
+     * @return maximum number of concurrent requests per host
+     */
+    public int getConnectionsPerHost() {
+	return connectionsPerHost;
+    }
+}
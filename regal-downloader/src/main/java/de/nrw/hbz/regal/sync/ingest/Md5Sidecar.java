@@ -0,0 +1,206 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The MD5 checksum of a downloaded file is computed while the file is written
+ * and kept in a hidden sidecar file next to it, .name.md5, in the format of
+ * md5sum. Whoever needs the checksum later reads the sidecar instead of the
+ * file. A sidecar that is older than its file is ignored. Checksums are also
+ * kept in the ChecksumCache, which is asked first. Files that have to be
+ * hashed are read through a direct buffer of the calling thread.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class Md5Sidecar {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public static class Md5SidecarException extends RuntimeException {
+	public Md5SidecarException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(Md5Sidecar.class);
+
+    /**
+     * Suffix of a sidecar file
+     */
+    public static final String SUFFIX = ".md5";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal
+	    .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private Md5Sidecar() {
+    }
+
+    /**
+     * @return a new MD5 digest
+     */
+    public static MessageDigest newDigest() {
+	try {
+	    return MessageDigest.getInstance("MD5");
+	} catch (NoSuchAlgorithmException e) {
+	    throw new Md5SidecarException(e);
+	}
+    }
+
+    /**
+     * @param digest
+     *            a digest
+     * @return the digest as lower case hex string
+     */
+    public static String hex(byte[] digest) {
+	char[] chars = new char[digest.length * 2];
+	for (int i = 0; i < digest.length; i++) {
+	    chars[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+	    chars[2 * i + 1] = HEX[digest[i] & 0xf];
+	}
+	return new String(chars);
+    }
+
+    /**
+     * Hashes a file. The file is read through a direct buffer of the calling
+     * thread, so no memory is allocated per call and no mapping outlives it.
+     * 
+     * @param file
+     *            a file
+     * @return the MD5 digest of the file
+     * @throws IOException
+     *             if the file can not be read
+     */
+    public static byte[] digest(File file) throws IOException {
+	MessageDigest digest = newDigest();
+	try (FileChannel channel = FileChannel.open(file.toPath(),
+		StandardOpenOption.READ)) {
+	    ByteBuffer buffer = buffers.get();
+	    buffer.clear();
+	    while (channel.read(buffer) != -1) {
+		buffer.flip();
+		digest.update(buffer);
+		buffer.clear();
+	    }
+	}
+	return digest.digest();
+    }
+
+    /**
+     * @param file
+     *            a file
+     * @return the sidecar of the file
+     */
+    public static File of(File file) {
+	return new File(file.getAbsoluteFile().getParentFile(), "."
+		+ file.getName() + SUFFIX);
+    }
+
+    /**
+     * @param file
+     *            a file
+     * @return true if the file is the sidecar of another file
+     */
+    public static boolean isSidecar(File file) {
+	String name = file.getName();
+	return name.startsWith(".") && name.endsWith(SUFFIX);
+    }
+
+    /**
+     * Writes the sidecar of a file. A sidecar that can not be written is
+     * logged only, the checksum is computed again when it is needed.
+     * 
+     * @param file
+     *            a file
+     * @param md5
+     *            the checksum of the file
+     */
+    public static void write(File file, String md5) {
+	ChecksumCache.getDefault().put(file, md5);
+	String line = md5 + "  " + file.getName() + "\n";
+	try {
+	    Files.write(of(file).toPath(),
+		    line.getBytes(StandardCharsets.UTF_8));
+	} catch (IOException e) {
+	    logger.warn("Can not write checksum of " + file + ": "
+		    + e.getMessage());
+	}
+    }
+
+    /**
+     * @param file
+     *            a file
+     * @return the checksum of the sidecar or null if there is no sidecar or
+     *         it is older than the file
+     */
+    public static String read(File file) {
+	File sidecar = of(file);
+	if (!sidecar.exists() || sidecar.lastModified() < file.lastModified())
+	    return null;
+	try {
+	    String line = new String(Files.readAllBytes(sidecar.toPath()),
+		    StandardCharsets.UTF_8).trim();
+	    int end = line.indexOf(' ');
+	    return end < 0 ? line : line.substring(0, end);
+	} catch (IOException e) {
+	    logger.warn("Can not read checksum of " + file + ": "
+		    + e.getMessage());
+	    return null;
+	}
+    }
+
+    /**
+     * Looks the checksum up in the ChecksumCache and then in the sidecar. If
+     * neither knows it, the checksum is computed and both are written.
+     * 
+     * @param file
+     *            a file
+     * @return the MD5 checksum of the file as hex string
+     */
+    public static String get(File file) {
+	ChecksumCache cache = ChecksumCache.getDefault();
+	String md5 = cache.get(file);
+	if (md5 != null)
+	    return md5;
+	md5 = read(file);
+	if (md5 != null) {
+	    cache.put(file, md5);
+	    return md5;
+	}
+	try {
+	    md5 = hex(digest(file));
+	} catch (IOException e) {
+	    throw new Md5SidecarException(e);
+	}
+	write(file, md5);
+	return md5;
+    }
+}
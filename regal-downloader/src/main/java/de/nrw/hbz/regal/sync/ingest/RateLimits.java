@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Token bucket rate limits per host, shared by all threads of the import.
+ * The limits of a host are a list of rules, the first rule that holds at the
+ * current time of day applies:
+ * 
+ * <pre>
+ * digitool.hbz-nrw.de = 2/5 07:00-20:00, 20
+ * * = 50
+ * </pre>
+ * 
+ * allows 2 requests per second with bursts of up to 5 requests between 7am
+ * and 8pm, and 20 requests per second otherwise. The rule of * applies to
+ * all hosts that have no rules of their own, hosts without a rule are not
+ * limited. Limits read from a file are reloaded when the file changes.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class RateLimits {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class RateLimitException extends RuntimeException {
+	public RateLimitException(String message) {
+	    super(message);
+	}
+
+	public RateLimitException(String message, Throwable cause) {
+	    super(message, cause);
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(RateLimits.class);
+
+    private static final String ANY = "*";
+    private static final long CHECK_INTERVAL = 60000;
+    private static final RateLimits shared = new RateLimits();
+
+    private final Map<String, List<Rule>> rules = new ConcurrentHashMap<String, List<Rule>>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<String, Bucket>();
+    private volatile File file = null;
+    private volatile long loaded = 0;
+    private volatile long checked = 0;
+
+    /**
+     * @return the limits shared by downloads and api calls
+     */
+    public static RateLimits getDefault() {
+	return shared;
+    }
+
+    /**
+     * Waits until the rate limit of the host allows another request
+     * 
+     * @param host
+     *            the host of the request
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting
+     */
+    public void acquire(String host) throws InterruptedIOException {
+	acquire(host, LocalTime.now());
+    }
+
+    /**
+     * Waits until the rule of the host that holds at the given time of day
+     * allows another request
+     * 
+     * @param host
+     *            the host of the request
+     * @param now
+     *            the time of day
+     * @throws InterruptedIOException
+     *             if the thread is interrupted while waiting
+     */
+    void acquire(String host, LocalTime now) throws InterruptedIOException {
+	reloadIfModified();
+	List<Rule> hostRules = rules.get(host);
+	if (hostRules == null)
+	    hostRules = rules.get(ANY);
+	if (hostRules == null)
+	    return;
+	Rule rule = current(hostRules, now);
+	if (rule == null)
+	    return;
+	long wait = buckets.computeIfAbsent(host, h -> new Bucket()).reserve(
+		rule);
+	if (wait <= 0)
+	    return;
+	try {
+	    Thread.sleep(wait);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException(host);
+	}
+    }
+
+    /**
+     * @param host
+     *            a host or * for all hosts without rules of their own
+     * @param spec
+     *            comma separated rules of the form rate[/burst]
+     *            [HH:mm-HH:mm], rate in requests per second. An empty spec
+     *            removes the limit.
+     */
+    public void setRules(String host, String spec) {
+	List<Rule> parsed = parse(spec);
+	if (parsed.isEmpty()) {
+	    rules.remove(host);
+	} else {
+	    rules.put(host, parsed);
+	}
+    }
+
+    /**
+     * Replaces all rules with the rules of a properties file. The file is
+     * reloaded as soon as it has changed.
+     * 
+     * @param file
+     *            a properties file with hosts as keys and rules as values
+     */
+    public void load(File file) {
+	Properties properties = new Properties();
+	try (InputStream in = new FileInputStream(file)) {
+	    properties.load(in);
+	} catch (IOException e) {
+	    throw new RateLimitException("Can not read " + file, e);
+	}
+	Map<String, List<Rule>> parsed = new ConcurrentHashMap<String, List<Rule>>();
+	for (String host : properties.stringPropertyNames()) {
+	    List<Rule> hostRules = parse(properties.getProperty(host));
+	    if (!hostRules.isEmpty())
+		parsed.put(host, hostRules);
+	}
+	rules.keySet().retainAll(parsed.keySet());
+	rules.putAll(parsed);
+	this.file = file;
+	this.loaded = file.lastModified();
+	logger.info("Rate limits of " + file + ": " + parsed);
+    }
+
+    private void reloadIfModified() {
+	File f = file;
+	long now = System.currentTimeMillis();
+	if (f == null || now - checked < CHECK_INTERVAL)
+	    return;
+	checked = now;
+	if (f.lastModified() == loaded)
+	    return;
+	try {
+	    load(f);
+	} catch (RateLimitException e) {
+	    logger.warn("Keep the current rate limits: " + e.getMessage());
+	}
+    }
+
+    private List<Rule> parse(String spec) {
+	List<Rule> parsed = new Vector<Rule>();
+	for (String r : spec.split(",")) {
+	    if (r.trim().isEmpty())
+		continue;
+	    try {
+		parsed.add(new Rule(r.trim()));
+	    } catch (RuntimeException e) {
+		throw new RateLimitException("Not a rate limit: " + r, e);
+	    }
+	}
+	return parsed;
+    }
+
+    private static Rule current(List<Rule> hostRules, LocalTime now) {
+	for (Rule rule : hostRules) {
+	    if (rule.holds(now))
+		return rule;
+	}
+	return null;
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder("rate limits:");
+	for (Map.Entry<String, Bucket> bucket : buckets.entrySet()) {
+	    sb.append(" " + bucket.getKey() + " waited "
+		    + bucket.getValue().waited.get() + " ms");
+	}
+	return sb.toString();
+    }
+
+    private static class Rule {
+	final double rate;
+	final double burst;
+	final LocalTime from;
+	final LocalTime to;
+
+	Rule(String spec) {
+	    String[] parts = spec.split("\\s+");
+	    String[] rateBurst = parts[0].split("/");
+	    rate = Double.parseDouble(rateBurst[0]);
+	    burst = rateBurst.length > 1 ? Double.parseDouble(rateBurst[1])
+		    : Math.max(1, rate);
+	    if (rate <= 0 || burst < 1)
+		throw new IllegalArgumentException(spec);
+	    if (parts.length > 1) {
+		String[] window = parts[1].split("-");
+		from = LocalTime.parse(window[0]);
+		to = LocalTime.parse(window[1]);
+	    } else {
+		from = null;
+		to = null;
+	    }
+	}
+
+	boolean holds(LocalTime now) {
+	    if (from == null)
+		return true;
+	    if (from.isBefore(to))
+		return !now.isBefore(from) && now.isBefore(to);
+	    // the window spans midnight
+	    return !now.isBefore(from) || now.isBefore(to);
+	}
+
+	@Override
+	public String toString() {
+	    return rate + "/" + burst + (from == null ? "" : " " + from + "-"
+		    + to);
+	}
+    }
+
+    /*
+     * A caller reserves a token even if there is none left. The balance
+     * becomes negative and the caller waits until its token has been
+     * refilled, so concurrent callers queue up in the order of their calls.
+     */
+    private static class Bucket {
+	final AtomicLong waited = new AtomicLong();
+	private double tokens = 0;
+	private long last = 0;
+
+	synchronized long reserve(Rule rule) {
+	    long now = System.nanoTime();
+	    tokens = last == 0 ? rule.burst : Math.min(rule.burst, tokens
+		    + (now - last) / 1e9 * rule.rate);
+	    last = now;
+	    tokens -= 1;
+	    if (tokens >= 0)
+		return 0;
+	    long wait = (long) Math.ceil(-tokens / rule.rate * 1000);
+	    waited.addAndGet(wait);
+	    return wait;
+	}
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries failed calls with an exponential backoff and a random jitter, and
+ * works as a circuit breaker: if more than half of the recent calls have
+ * failed, every caller pauses before its next call, so a struggling server
+ * is not hit by all workers at once. Only transient failures count, e.g. a
+ * timeout or a 503, and only idempotent calls may be retried.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class RetryPolicy {
+
+    /**
+     * A call that can be retried
+     * 
+     * @param <T>
+     *            the result of the call
+     * @param <E>
+     *            the exception thrown by the call
+     */
+    public interface Call<T, E extends Exception> {
+	/**
+	 * @return the result of the call
+	 * @throws E
+	 *             if the call fails
+	 */
+	T call() throws E;
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    /**
+     * Default number of retries of a call
+     */
+    public static final int DEFAULT_RETRIES = 3;
+    /**
+     * Default delay before the first retry in ms. It doubles with each retry.
+     */
+    public static final int DEFAULT_DELAY = 1000;
+    /**
+     * Default upper bound of the delay in ms
+     */
+    public static final int DEFAULT_MAX_DELAY = 60000;
+    /**
+     * Default pause of all callers in ms, after the circuit has opened
+     */
+    public static final int DEFAULT_PAUSE = 30000;
+
+    private static final int WINDOW = 20;
+    private static final double THRESHOLD = 0.5;
+
+    private final String name;
+    private volatile int retries = DEFAULT_RETRIES;
+    private volatile int delay = DEFAULT_DELAY;
+    private volatile int maxDelay = DEFAULT_MAX_DELAY;
+    private volatile int pause = DEFAULT_PAUSE;
+
+    private final boolean[] outcomes = new boolean[WINDOW];
+    private int next = 0;
+    private int count = 0;
+    private int failures = 0;
+    private long openUntil = 0;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong givenUp = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+
+    /**
+     * @param name
+     *            name of the policy, used in the log and the metrics
+     */
+    public RetryPolicy(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Calls until the call succeeds, fails with an exception that is not
+     * retryable or the retries are exhausted. The last exception is thrown.
+     * 
+     * @param call
+     *            an idempotent call
+     * @param retryable
+     *            tells if an exception of the call is transient
+     * @return the result of the call
+     * @throws E
+     *             the last exception of the call
+     */
+    public <T, E extends Exception> T call(Call<T, E> call,
+	    Predicate<Exception> retryable) throws E {
+	for (int attempt = 1;; attempt++) {
+	    await();
+	    try {
+		T result = call.call();
+		record(true);
+		return result;
+	    } catch (Exception e) {
+		boolean temporary = retryable.test(e);
+		record(!temporary);
+		if (!temporary || !retry(attempt, e.toString())) {
+		    throw RetryPolicy.<E> cast(e);
+		}
+	    }
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> E cast(Exception e) {
+	// call.call() throws nothing but E and unchecked exceptions
+	return (E) e;
+    }
+
+    /**
+     * Waits while the circuit is open. Must be called before each attempt of
+     * a call.
+     */
+    public void await() {
+	calls.incrementAndGet();
+	synchronized (this) {
+	    long wait;
+	    while ((wait = openUntil - System.currentTimeMillis()) > 0) {
+		try {
+		    wait(wait);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    return;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Records the outcome of an attempt. Opens the circuit, if more than half
+     * of the recent attempts have failed.
+     * 
+     * @param success
+     *            false if the attempt failed with a transient failure
+     */
+    public synchronized void record(boolean success) {
+	if (count == WINDOW) {
+	    if (outcomes[next])
+		failures--;
+	} else {
+	    count++;
+	}
+	outcomes[next] = !success;
+	if (!success)
+	    failures++;
+	next = (next + 1) % WINDOW;
+	if (pause > 0 && count == WINDOW && failures > THRESHOLD * WINDOW) {
+	    openUntil = System.currentTimeMillis() + pause;
+	    opened.incrementAndGet();
+	    count = 0;
+	    failures = 0;
+	    logger.warn(name + ": " + (int) (THRESHOLD * 100)
+		    + "% of the last " + WINDOW + " calls failed. Pause for "
+		    + pause + " ms.");
+	}
+    }
+
+    /**
+     * Waits before the next attempt of a failed call
+     * 
+     * @param attempt
+     *            number of the failed attempt, starting with 1
+     * @param failure
+     *            the failure, used in the log
+     * @return false if the call must not be retried
+     */
+    public boolean retry(int attempt, String failure) {
+	if (attempt > retries) {
+	    givenUp.incrementAndGet();
+	    logger.warn(name + ": give up after " + attempt + " attempts: "
+		    + failure);
+	    return false;
+	}
+	long backoff = Math.min(maxDelay, (long) delay << Math.min(attempt - 1,
+		20));
+	// full jitter, so the callers of a failed burst spread out
+	long sleep = ThreadLocalRandom.current().nextLong(backoff + 1);
+	logger.info(name + ": retry " + attempt + " in " + sleep + " ms: "
+		+ failure);
+	try {
+	    Thread.sleep(sleep);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    return false;
+	}
+	retried.incrementAndGet();
+	return true;
+    }
+
+    /**
+     * @param retries
+     *            maximum number of retries of a call, 0 disables retries
+     */
+    public void setRetries(int retries) {
+	this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * @param delay
+     *            delay before the first retry in ms
+     */
+    public void setDelay(int delay) {
+	this.delay = Math.max(0, delay);
+    }
+
+    /**
+     * @param maxDelay
+     *            upper bound of the delay in ms
+     */
+    public void setMaxDelay(int maxDelay) {
+	this.maxDelay = Math.max(0, maxDelay);
+    }
+
+    /**
+     * @param pause
+     *            pause of all callers in ms, after the circuit has opened. 0
+     *            disables the circuit breaker.
+     */
+    public void setPause(int pause) {
+	this.pause = Math.max(0, pause);
+    }
+
+    /**
+     * @return number of attempts
+     */
+    public long getCalls() {
+	return calls.get();
+    }
+
+    /**
+     * @return number of retries
+     */
+    public long getRetried() {
+	return retried.get();
+    }
+
+    /**
+     * @return number of calls that failed after all retries
+     */
+    public long getGivenUp() {
+	return givenUp.get();
+    }
+
+    /**
+     * @return number of times the circuit has opened
+     */
+    public long getOpened() {
+	return opened.get();
+    }
+
+    @Override
+    public String toString() {
+	return name + ": " + calls.get() + " calls, " + retried.get()
+		+ " retries, " + givenUp.get() + " given up, circuit opened "
+		+ opened.get() + " times";
+    }
+}
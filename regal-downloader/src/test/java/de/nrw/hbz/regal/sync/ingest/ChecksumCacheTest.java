@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Fills a ChecksumCache, reopens it and checks which entries survive.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class ChecksumCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File dir;
+    ChecksumCache cache;
+
+    @Before
+    public void setUp() {
+	dir = folder.getRoot();
+	cache = new ChecksumCache();
+	cache.open(dir);
+    }
+
+    private File file(String name, String content) throws IOException {
+	File file = new File(dir, name);
+	Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	return file;
+    }
+
+    private List<String> lines() throws IOException {
+	return Files.readAllLines(new File(dir, ChecksumCache.FILE_NAME)
+		.toPath());
+    }
+
+    @Test
+    public void load() throws IOException {
+	File a = file("a", "a");
+	File b = file("b", "b");
+	cache.put(a, "md5a");
+	cache.put(b, "md5b");
+	cache.put(b, "md5b");
+	cache.close();
+	Assert.assertEquals(2, lines().size());
+	ChecksumCache reopened = new ChecksumCache();
+	reopened.open(dir);
+	Assert.assertEquals("md5a", reopened.get(a));
+	Assert.assertEquals("md5b", reopened.get(b));
+    }
+
+    @Test
+    public void changedFile() throws IOException {
+	File a = file("a", "a");
+	cache.put(a, "md5a");
+	Files.write(a.toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+	Assert.assertNull(cache.get(a));
+    }
+
+    @Test
+    public void crashedLastLine() throws IOException {
+	File a = file("a", "a");
+	cache.put(a, "md5a");
+	cache.close();
+	Files.write(new File(dir, ChecksumCache.FILE_NAME).toPath(),
+		(a.getAbsolutePath() + "\t1").getBytes(StandardCharsets.UTF_8),
+		StandardOpenOption.APPEND);
+	ChecksumCache reopened = new ChecksumCache();
+	reopened.open(dir);
+	Assert.assertEquals(1, reopened.size());
+	Assert.assertEquals("md5a", reopened.get(a));
+    }
+
+    @Test
+    public void compactDropsDeletedAndChangedFiles() throws IOException {
+	File kept = file("kept", "kept");
+	cache.put(kept, "md5kept");
+	for (int i = 0; i < 5; i++) {
+	    cache.put(file("deleted" + i, "x"), "md5deleted");
+	}
+	File changed = file("changed", "changed");
+	cache.put(changed, "md5changed");
+	cache.close();
+	for (int i = 0; i < 5; i++) {
+	    Assert.assertTrue(new File(dir, "deleted" + i).delete());
+	}
+	Files.write(changed.toPath(), "other".getBytes(StandardCharsets.UTF_8));
+	Assert.assertEquals(7, lines().size());
+	ChecksumCache reopened = new ChecksumCache();
+	reopened.open(dir);
+	Assert.assertEquals(1, reopened.size());
+	Assert.assertEquals("md5kept", reopened.get(kept));
+	Assert.assertNull(reopened.get(changed));
+	Assert.assertEquals(1, lines().size());
+    }
+}
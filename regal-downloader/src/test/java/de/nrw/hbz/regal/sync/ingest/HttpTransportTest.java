@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Copies a file from a local server that breaks off the first responses in
+ * the middle of the body. The server records the Range and If-Range header
+ * of every request and answers a range request with 206, if the If-Range
+ * matches its ETag, or with rangeStatus, if that is set. The server keeps
+ * the connection of a truncated body open, so the copy breaks off with a
+ * read timeout.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class HttpTransportTest {
+
+    private static final int SIZE = 256 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    HttpServer server = null;
+    HttpTransport transport = null;
+    List<String> requests = new Vector<String>();
+    volatile byte[] content = random(SIZE, 1);
+    volatile String etag = "\"v1\"";
+    volatile byte[] changed = null;
+    volatile int truncate = 1;
+    volatile int rangeStatus = 0;
+    String url = null;
+    File file = null;
+
+    @Before
+    public void setUp() throws IOException {
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/", this::handle);
+	server.start();
+	url = "http://localhost:" + server.getAddress().getPort() + "/data";
+	RetryPolicy retryPolicy = new RetryPolicy("test");
+	retryPolicy.setDelay(1);
+	retryPolicy.setMaxDelay(10);
+	transport = new HttpTransport();
+	transport.setRetryPolicy(retryPolicy);
+	transport.setRateLimits(new RateLimits());
+	transport.setReadTimeout(1000);
+	file = new File(folder.getRoot(), "data");
+    }
+
+    @After
+    public void tearDown() {
+	server.stop(0);
+    }
+
+    private static byte[] random(int size, long seed) {
+	byte[] bytes = new byte[size];
+	new Random(seed).nextBytes(bytes);
+	return bytes;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	String range = exchange.getRequestHeaders().getFirst("Range");
+	String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+	requests.add(range + " " + ifRange);
+	byte[] body = content;
+	if (range != null && rangeStatus > 0) {
+	    rangeStatus = 0;
+	    exchange.sendResponseHeaders(416, -1);
+	    exchange.close();
+	    return;
+	}
+	if (etag != null)
+	    exchange.getResponseHeaders().set("ETag", etag);
+	int offset = 0;
+	if (range != null && ifRange != null && ifRange.equals(etag)) {
+	    offset = Integer.parseInt(range.substring("bytes=".length(),
+		    range.length() - 1));
+	    exchange.getResponseHeaders().set("Content-Range",
+		    "bytes " + offset + "-" + (body.length - 1) + "/"
+			    + body.length);
+	    exchange.sendResponseHeaders(206, body.length - offset);
+	} else {
+	    exchange.sendResponseHeaders(200, body.length);
+	}
+	int end = body.length;
+	if (truncate > 0) {
+	    truncate--;
+	    end = offset + (body.length - offset) / 2;
+	    if (changed != null) {
+		content = changed;
+		etag = "\"v2\"";
+	    }
+	}
+	try (OutputStream out = exchange.getResponseBody()) {
+	    out.write(body, offset, end - offset);
+	    out.flush();
+	} catch (IOException e) {
+	    // the server complains about the missing bytes
+	} finally {
+	    exchange.close();
+	}
+    }
+
+    private List<String> parts() {
+	List<String> parts = new Vector<String>();
+	for (String name : folder.getRoot().list()) {
+	    if (name.endsWith(HttpTransport.PART_SUFFIX))
+		parts.add(name);
+	}
+	return parts;
+    }
+
+    private void assertCopied(byte[] expected) throws IOException {
+	Assert.assertTrue(Arrays.equals(expected,
+		Files.readAllBytes(file.toPath())));
+	Assert.assertEquals(
+		Md5Sidecar.hex(Md5Sidecar.newDigest().digest(expected)),
+		Md5Sidecar.read(file));
+	Assert.assertEquals(Arrays.asList(), parts());
+    }
+
+    @Test(timeout = 30000)
+    public void completeResponse() throws IOException {
+	truncate = 0;
+	Assert.assertEquals(SIZE, transport.copy(url, file));
+	assertCopied(content);
+	Assert.assertEquals(Arrays.asList("null null"), requests);
+    }
+
+    @Test(timeout = 30000)
+    public void resumeTruncatedResponse() throws IOException {
+	truncate = 2;
+	Assert.assertEquals(SIZE, transport.copy(url, file));
+	assertCopied(content);
+	Assert.assertEquals(3, requests.size());
+	Assert.assertEquals("null null", requests.get(0));
+	Assert.assertTrue(requests.get(1),
+		requests.get(1).matches("bytes=[1-9][0-9]*- \"v1\""));
+	Assert.assertTrue(requests.get(2),
+		requests.get(2).matches("bytes=[1-9][0-9]*- \"v1\""));
+	Assert.assertNotEquals(requests.get(1), requests.get(2));
+    }
+
+    @Test(timeout = 30000)
+    public void changedResourceIsCopiedAgain() throws IOException {
+	changed = random(SIZE / 2, 2);
+	Assert.assertEquals(SIZE / 2, transport.copy(url, file));
+	assertCopied(changed);
+	Assert.assertEquals(2, requests.size());
+	Assert.assertTrue(requests.get(1),
+		requests.get(1).endsWith(" \"v1\""));
+    }
+
+    @Test(timeout = 30000)
+    public void noValidatorNoRange() throws IOException {
+	etag = null;
+	Assert.assertEquals(SIZE, transport.copy(url, file));
+	assertCopied(content);
+	Assert.assertEquals(Arrays.asList("null null", "null null"),
+		requests);
+    }
+
+    @Test(timeout = 30000)
+    public void unsatisfiableRangeRestarts() throws IOException {
+	rangeStatus = 416;
+	Assert.assertEquals(SIZE, transport.copy(url, file));
+	assertCopied(content);
+	Assert.assertEquals(3, requests.size());
+	Assert.assertTrue(requests.get(1),
+		requests.get(1).startsWith("bytes="));
+	Assert.assertEquals("null null", requests.get(2));
+    }
+
+    @Test(timeout = 30000)
+    public void partOfAnotherCallIsNotTouched() throws IOException {
+	truncate = 0;
+	File part = new File(file.getPath() + ".other"
+		+ HttpTransport.PART_SUFFIX);
+	byte[] other = random(100, 3);
+	Files.write(part.toPath(), other);
+	transport.copy(url, file);
+	Assert.assertEquals(Arrays.asList(part.getName()), parts());
+	Assert.assertTrue(Arrays.equals(other,
+		Files.readAllBytes(part.toPath())));
+	part.delete();
+	assertCopied(content);
+	Assert.assertEquals(Arrays.asList("null null"), requests);
+    }
+
+    @Test(timeout = 30000)
+    public void failedCopyLeavesNoPart() throws IOException {
+	truncate = 10;
+	transport.getRetryPolicy().setRetries(1);
+	try {
+	    transport.copy(url, file);
+	    Assert.fail();
+	} catch (IOException e) {
+	    // expected
+	}
+	Assert.assertEquals(0, folder.getRoot().listFiles().length);
+    }
+}
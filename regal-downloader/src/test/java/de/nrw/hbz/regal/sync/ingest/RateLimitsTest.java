@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.nrw.hbz.regal.sync.ingest.RateLimits.RateLimitException;
+
+/**
+ * Measures how long a number of requests to a host has to wait under
+ * different rules.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class RateLimitsTest {
+
+    private static final LocalTime DAY = LocalTime.of(8, 0);
+    private static final LocalTime NIGHT = LocalTime.of(23, 0);
+
+    /**
+     * @return ms the requests had to wait
+     */
+    private static long requests(RateLimits limits, String host, int count,
+	    LocalTime now) throws InterruptedIOException {
+	long start = System.nanoTime();
+	for (int i = 0; i < count; i++)
+	    limits.acquire(host, now);
+	return (System.nanoTime() - start) / 1000000;
+    }
+
+    @Test
+    public void hostWithoutRulesIsNotLimited() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("limited", "1");
+	Assert.assertTrue(requests(limits, "other", 100, DAY) < 100);
+    }
+
+    @Test
+    public void burstThenRate() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("host", "10/3");
+	Assert.assertTrue(requests(limits, "host", 3, DAY) < 100);
+	long waited = requests(limits, "host", 5, DAY);
+	Assert.assertTrue(waited + " ms", waited >= 450 && waited < 2000);
+    }
+
+    @Test
+    public void anyAppliesToHostsWithoutRules() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("*", "10/1");
+	limits.setRules("fast", "1000/1000");
+	long waited = requests(limits, "other", 4, DAY);
+	Assert.assertTrue(waited + " ms", waited >= 250);
+	Assert.assertTrue(requests(limits, "fast", 100, DAY) < 100);
+    }
+
+    @Test
+    public void hostsHaveTheirOwnBuckets() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("*", "1/1");
+	Assert.assertTrue(requests(limits, "a", 1, DAY) < 100);
+	Assert.assertTrue(requests(limits, "b", 1, DAY) < 100);
+    }
+
+    @Test
+    public void firstRuleThatHoldsApplies() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	String spec = "10/1 07:00-20:00, 1000/1000";
+	limits.setRules("day", spec);
+	limits.setRules("night", spec);
+	long waited = requests(limits, "day", 4, DAY);
+	Assert.assertTrue(waited + " ms", waited >= 250);
+	Assert.assertTrue(requests(limits, "night", 100, NIGHT) < 100);
+    }
+
+    @Test
+    public void ruleSpansMidnight() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("night", "10/1 22:00-06:00");
+	limits.setRules("day", "10/1 22:00-06:00");
+	long waited = requests(limits, "night", 4, NIGHT);
+	Assert.assertTrue(waited + " ms", waited >= 250);
+	Assert.assertTrue(requests(limits, "day", 100, DAY) < 100);
+    }
+
+    @Test
+    public void emptySpecRemovesLimit() throws InterruptedIOException {
+	RateLimits limits = new RateLimits();
+	limits.setRules("host", "1/1");
+	limits.setRules("host", "");
+	Assert.assertTrue(requests(limits, "host", 100, DAY) < 100);
+    }
+
+    @Test(expected = RateLimitException.class)
+    public void invalidSpec() {
+	new RateLimits().setRules("host", "0/1");
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Retries calls that fail a given number of times and records outcomes
+ * until the circuit opens.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class RetryPolicyTest {
+
+    private static final int WINDOW = 20;
+
+    private static RetryPolicy policy() {
+	RetryPolicy policy = new RetryPolicy("test");
+	policy.setDelay(1);
+	policy.setMaxDelay(10);
+	return policy;
+    }
+
+    /**
+     * @return a call that fails the given number of times and then returns
+     *         the number of attempts
+     */
+    private static RetryPolicy.Call<Integer, IOException> failing(
+	    int failures) {
+	AtomicInteger attempts = new AtomicInteger();
+	return () -> {
+	    if (attempts.incrementAndGet() <= failures)
+		throw new IOException("attempt " + attempts.get());
+	    return attempts.get();
+	};
+    }
+
+    private static void record(RetryPolicy policy, int failures,
+	    int successes) {
+	for (int i = 0; i < failures; i++)
+	    policy.record(false);
+	for (int i = 0; i < successes; i++)
+	    policy.record(true);
+    }
+
+    /**
+     * @return ms the await had to wait
+     */
+    private static long await(RetryPolicy policy) {
+	long start = System.nanoTime();
+	policy.await();
+	return (System.nanoTime() - start) / 1000000;
+    }
+
+    @Test
+    public void retriesTransientFailures() throws IOException {
+	RetryPolicy policy = policy();
+	Assert.assertEquals(3, (int) policy.call(failing(2), e -> true));
+	Assert.assertEquals(3, policy.getCalls());
+	Assert.assertEquals(2, policy.getRetried());
+	Assert.assertEquals(0, policy.getGivenUp());
+    }
+
+    @Test
+    public void givesUpAfterRetries() {
+	RetryPolicy policy = policy();
+	policy.setRetries(2);
+	try {
+	    policy.call(failing(5), e -> true);
+	    Assert.fail();
+	} catch (IOException e) {
+	    Assert.assertEquals("attempt 3", e.getMessage());
+	}
+	Assert.assertEquals(3, policy.getCalls());
+	Assert.assertEquals(2, policy.getRetried());
+	Assert.assertEquals(1, policy.getGivenUp());
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried() {
+	RetryPolicy policy = policy();
+	try {
+	    policy.call(failing(1), e -> false);
+	    Assert.fail();
+	} catch (IOException e) {
+	    Assert.assertEquals("attempt 1", e.getMessage());
+	}
+	Assert.assertEquals(1, policy.getCalls());
+	Assert.assertEquals(0, policy.getRetried());
+    }
+
+    @Test(timeout = 10000)
+    public void breakerOpensAndCloses() {
+	RetryPolicy policy = policy();
+	policy.setPause(300);
+	record(policy, WINDOW / 2 + 1, WINDOW / 2 - 1);
+	Assert.assertEquals(1, policy.getOpened());
+	long waited = await(policy);
+	Assert.assertTrue(waited + " ms", waited >= 250);
+	Assert.assertTrue(await(policy) < 100);
+	record(policy, WINDOW / 2, 1);
+	Assert.assertEquals(1, policy.getOpened());
+	Assert.assertTrue(await(policy) < 100);
+    }
+
+    @Test(timeout = 10000)
+    public void breakerOpensOnRecentFailures() {
+	RetryPolicy policy = policy();
+	policy.setPause(300);
+	record(policy, 0, WINDOW);
+	record(policy, WINDOW / 2, 0);
+	Assert.assertEquals(0, policy.getOpened());
+	Assert.assertTrue(await(policy) < 100);
+	record(policy, 1, 0);
+	Assert.assertEquals(1, policy.getOpened());
+	Assert.assertTrue(await(policy) >= 250);
+    }
+
+    @Test
+    public void noPauseDisablesBreaker() {
+	RetryPolicy policy = policy();
+	policy.setPause(0);
+	record(policy, WINDOW, 0);
+	Assert.assertEquals(0, policy.getOpened());
+	Assert.assertTrue(await(policy) < 100);
+    }
+}
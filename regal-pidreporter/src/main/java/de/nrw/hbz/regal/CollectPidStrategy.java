@@ -17,6 +17,7 @@
 package de.nrw.hbz.regal;
 
 import java.util.List;
+import java.util.Vector;
 
 import se.kb.oai.pmh.IdentifiersList;
 
@@ -34,4 +35,20 @@ public interface CollectPidStrategy {
      * @return a list of pids
      */
     abstract public List<String> collectPids(IdentifiersList reclist);
+
+    /**
+     * Extracts pid, datestamp and status from the headers. Strategies that
+     * only know the pids return them without datestamp and as not deleted.
+     * 
+     * @param reclist
+     *            A list of OAI-Identifiers
+     * @return a list of headers
+     */
+    default public List<OaiHeader> collectHeaders(IdentifiersList reclist) {
+	List<OaiHeader> result = new Vector<OaiHeader>();
+	for (String pid : collectPids(reclist)) {
+	    result.add(new OaiHeader(pid));
+	}
+	return result;
+    }
 }
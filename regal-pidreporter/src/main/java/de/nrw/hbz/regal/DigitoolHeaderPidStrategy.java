@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.regex.Pattern;
+
+/**
+ * Collects the same pids as DigitoolPidStrategy, i.e. the part behind the
+ * second colon of oai:repository:pid, but walks the header elements instead
+ * of searching the serialized response.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class DigitoolHeaderPidStrategy extends HeaderPidStrategy {
+
+    private static final Pattern DIGITOOL_IDENTIFIER = Pattern
+	    .compile("oai:[^:]*:(.*)", Pattern.DOTALL);
+
+    /**
+     * Default constructor
+     */
+    public DigitoolHeaderPidStrategy() {
+	super(DIGITOOL_IDENTIFIER);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.List;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dom4j.Element;
+
+import se.kb.oai.pmh.IdentifiersList;
+
+/**
+ * Collects pids by walking the header elements of the parsed response. Unlike
+ * DefaultCollectPidStrategy it does not serialize the response to a string
+ * and search it again.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class HeaderPidStrategy implements CollectPidStrategy {
+
+    private final Pattern pattern;
+
+    /**
+     * Each OAI-Identifier is used as pid
+     */
+    public HeaderPidStrategy() {
+	this(null);
+    }
+
+    /**
+     * @param pattern
+     *            an OAI-Identifier must match the pattern. Group 1 is used
+     *            as pid. Identifiers that do not match are skipped.
+     */
+    public HeaderPidStrategy(Pattern pattern) {
+	this.pattern = pattern;
+    }
+
+    @Override
+    public List<String> collectPids(IdentifiersList reclist) {
+	Vector<String> result = new Vector<String>();
+	for (Element header : headers(reclist)) {
+	    String pid = pid(header);
+	    if (pid != null)
+		result.add(pid);
+	}
+	return result;
+    }
+
+    @Override
+    public List<OaiHeader> collectHeaders(IdentifiersList reclist) {
+	Vector<OaiHeader> result = new Vector<OaiHeader>();
+	for (Element header : headers(reclist)) {
+	    String pid = pid(header);
+	    if (pid == null)
+		continue;
+	    Element datestamp = child(header, "datestamp");
+	    result.add(new OaiHeader(pid, datestamp == null ? null : datestamp
+		    .getTextTrim(), "deleted".equals(header
+		    .attributeValue("status"))));
+	}
+	return result;
+    }
+
+    /**
+     * @param header
+     *            a header element of the response
+     * @return the pid or null if the header has no matching identifier
+     */
+    protected String pid(Element header) {
+	Element identifier = child(header, "identifier");
+	if (identifier == null)
+	    return null;
+	String id = identifier.getText();
+	if (pattern == null)
+	    return id;
+	Matcher matcher = pattern.matcher(id);
+	if (!matcher.matches())
+	    return null;
+	return matcher.group(1);
+    }
+
+    /**
+     * @param reclist
+     *            a ListIdentifiers response
+     * @return the header elements of the response
+     */
+    static List<Element> headers(IdentifiersList reclist) {
+	List<Element> result = new Vector<Element>();
+	Element list = child(reclist.getResponse().getRootElement(),
+		"ListIdentifiers");
+	if (list == null)
+	    return result;
+	for (Element e : elements(list)) {
+	    if ("header".equals(e.getName()))
+		result.add(e);
+	}
+	return result;
+    }
+
+    /**
+     * @param parent
+     *            an element
+     * @param name
+     *            the local name of the child, the namespace is ignored
+     * @return the first child with the name or null
+     */
+    static Element child(Element parent, String name) {
+	for (Element e : elements(parent)) {
+	    if (name.equals(e.getName()))
+		return e;
+	}
+	return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Element> elements(Element parent) {
+	return parent.elements();
+    }
+}
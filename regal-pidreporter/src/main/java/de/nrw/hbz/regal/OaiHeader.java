@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+/**
+ * The part of an OAI header the sync needs: the pid, the datestamp and
+ * whether the record has been deleted.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class OaiHeader {
+
+    private final String pid;
+    private final String datestamp;
+    private final boolean deleted;
+
+    /**
+     * @param pid
+     *            the pid extracted from the OAI-Identifier
+     * @param datestamp
+     *            the datestamp of the record or null if unknown
+     * @param deleted
+     *            true if the header has status="deleted"
+     */
+    public OaiHeader(String pid, String datestamp, boolean deleted) {
+	this.pid = pid;
+	this.datestamp = datestamp;
+	this.deleted = deleted;
+    }
+
+    /**
+     * @param pid
+     *            a pid without header information
+     */
+    public OaiHeader(String pid) {
+	this(pid, null, false);
+    }
+
+    /**
+     * @return the pid extracted from the OAI-Identifier
+     */
+    public String getPid() {
+	return pid;
+    }
+
+    /**
+     * @return the datestamp of the record or null if unknown
+     */
+    public String getDatestamp() {
+	return datestamp;
+    }
+
+    /**
+     * @return true if the record has been deleted at the OAI provider
+     */
+    public boolean isDeleted() {
+	return deleted;
+    }
+
+    @Override
+    public String toString() {
+	return pid + (deleted ? " (deleted)" : "") + " " + datestamp;
+    }
+}
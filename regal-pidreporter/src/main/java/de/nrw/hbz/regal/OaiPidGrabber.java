@@ -22,16 +22,14 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Vector;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import se.kb.oai.OAIException;
-import se.kb.oai.pmh.IdentifiersList;
 import se.kb.oai.pmh.OaiPmhServer;
-import se.kb.oai.pmh.ResumptionToken;
 
 /**
  * @author Jan Schnasse, schnasse@hbz-nrw.de
@@ -40,6 +38,8 @@ import se.kb.oai.pmh.ResumptionToken;
 class OaiPidGrabber {
     String server = null;
     String timestampfile = null;
+    int prefetch = 0;
+    int parallelSets = 1;
 
     final Logger logger = LoggerFactory.getLogger(OaiPidGrabber.class);
 
@@ -59,15 +59,8 @@ class OaiPidGrabber {
      */
     List<String> listPids(String set, boolean harvestFromScratch,
 	    CollectPidStrategy collectPidStrategy, String format) {
-	String[] sets = null;
-
-	if (set != null && !set.isEmpty()) {
-
-	    if (set.compareTo("null") != 0) {
-		sets = set.split(",");
-	    }
-	}
-	return listPids(sets, harvestFromScratch, collectPidStrategy, format);
+	return listPids(splitSets(set), harvestFromScratch,
+		collectPidStrategy, format);
     }
 
     /**
@@ -85,112 +78,133 @@ class OaiPidGrabber {
      */
     public List<String> listPids(String[] sets, boolean harvestFromScratch,
 	    CollectPidStrategy collectPidStrategy, String format) {
+	Vector<String> result = new Vector<String>();
+	Iterator<OaiHeader> headers = iterateHeaders(sets, harvestFromScratch,
+		collectPidStrategy, format);
+	while (headers.hasNext()) {
+	    result.add(headers.next().getPid());
+	}
+	return result;
+    }
 
+    /**
+     * Like listPids, but the headers are fetched page by page while the
+     * caller walks through them.
+     * 
+     * @param set
+     *            a oai set or a comma separated list of sets
+     * @param harvestFromScratch
+     *            if true, all pids will be listed. If false, the timestampFile
+     *            will be analyses and only recent pids will be listed
+     * @param collectPidStrategy
+     *            defines how to extract pids from the oai-identifier
+     * @param format
+     *            defines a format
+     * @return the headers in harvest order
+     */
+    Iterator<OaiHeader> iterateHeaders(String set,
+	    boolean harvestFromScratch, CollectPidStrategy collectPidStrategy,
+	    String format) {
+	return iterateHeaders(splitSets(set), harvestFromScratch,
+		collectPidStrategy, format);
+    }
+
+    /**
+     * Like listPids, but the headers are fetched page by page while the
+     * caller walks through them. Pids that are member of more than one set
+     * are returned once, if the sets are harvested in parallel.
+     * 
+     * @param sets
+     *            multiple oai sets
+     * @param harvestFromScratch
+     *            if true, all pids will be listed. If false, the timestampFile
+     *            will be analyses and only recent pids will be listed
+     * @param collectPidStrategy
+     *            defines how to extract pids from the oai-identifier
+     * @param format
+     *            defines a format
+     * @return the headers in harvest order
+     */
+    Iterator<OaiHeader> iterateHeaders(String[] sets,
+	    boolean harvestFromScratch, CollectPidStrategy collectPidStrategy,
+	    String format) {
 	logger.info("Start harvesting " + server + " !");
+	String fromStr = null;
+	if (!harvestFromScratch) {
+	    fromStr = readTimestamp();
+	    logger.info("Harvest all Records from " + fromStr + " !");
+	} else {
+	    logger.info("Harvest all Records! No from= Parameter set!");
+	}
+	if (sets == null || sets.length < 2 || parallelSets < 2) {
+	    return new OaiPidIterator(this, new OaiPmhServer(server), sets,
+		    fromStr, collectPidStrategy, format, prefetch);
+	}
+	logger.info("Harvest " + sets.length + " sets with " + parallelSets
+		+ " threads !");
+	List<Iterator<OaiHeader>> iterators = new Vector<Iterator<OaiHeader>>();
+	for (int i = 0; i < sets.length; i++) {
+	    // the timestamp is taken from the first set, as before
+	    iterators.add(new OaiPidIterator(i == 0 ? this : null,
+		    new OaiPmhServer(server), new String[] { sets[i] },
+		    fromStr, collectPidStrategy, format, prefetch));
+	}
+	return new ParallelSetIterator(iterators, Math.min(parallelSets,
+		sets.length), 1000);
+    }
 
-	OaiPmhServer oaiserver = new OaiPmhServer(server);
-	Vector<String> result = new Vector<String>();
-	try {
+    private String[] splitSets(String set) {
+	String[] sets = null;
 
-	    String fromStr = null;
-	    BufferedReader reader = null;
-	    try {
-		if (!harvestFromScratch) {
-		    File oaifile = new File(this.timestampfile);
-		    if (!oaifile.exists()) {
-			logger.warn("Timestamp file " + this.timestampfile
-				+ " is not available! First harvest!?");
-			logger.warn("I continue with harvest from scratch!");
-		    } else {
-			reader = new BufferedReader(new FileReader(oaifile));
-			String input = reader.readLine();
-			fromStr = input;
-		    }
-		    logger.info("Harvest all Records from " + fromStr + " !");
-		} else {
-		    logger.info("Harvest all Records! No from= Parameter set!");
-		}
+	if (set != null && !set.isEmpty()) {
 
-	    } catch (IOException e) {
-		e.printStackTrace();
-	    } finally {
-		try {
-		    if (reader != null)
-			reader.close();
-		} catch (IOException e) {
-		    e.printStackTrace();
-		}
+	    if (set.compareTo("null") != 0) {
+		sets = set.split(",");
 	    }
+	}
+	return sets;
+    }
 
-	    String until = null;
-	    if (sets == null) {
-		logger.info("Set spec is null  !");
-		IdentifiersList reclist = oaiserver.listIdentifiers(format,
-			fromStr, until, null);
-		String dateString = reclist.getResponseDate();
-		logger.info("Harvest Date " + dateString + " !");
-		BufferedWriter writer = null;
-		try {
-		    writer = new BufferedWriter(new FileWriter(new File(
-			    this.timestampfile)));
-		    writer.write(dateString);
-		    writer.flush();
-
-		} catch (IOException e) {
-		    e.printStackTrace();
-		} finally {
-
-		    try {
-			if (writer != null)
-			    writer.close();
-		    } catch (IOException e) {
-
-			e.printStackTrace();
-		    }
-		}
-
-		do {
-		    result.addAll(collectPidStrategy.collectPids(reclist));
-		    ResumptionToken token = reclist.getResumptionToken();
-		    if (token == null) {
-			break;
-		    }
-		    reclist = oaiserver.listIdentifiers(token);
-
-		} while (true);
+    private String readTimestamp() {
+	String fromStr = null;
+	BufferedReader reader = null;
+	try {
+	    File oaifile = new File(this.timestampfile);
+	    if (!oaifile.exists()) {
+		logger.warn("Timestamp file " + this.timestampfile
+			+ " is not available! First harvest!?");
+		logger.warn("I continue with harvest from scratch!");
 	    } else {
-		for (int i = 0; i < sets.length; i++) {
-		    logger.info("Set spec is " + sets[i].trim() + " !");
-		    IdentifiersList reclist = oaiserver.listIdentifiers(format,
-			    fromStr, until, sets[i].trim());
-		    if (i == 0) {
-			String dateString = reclist.getResponseDate();
-			logger.info("Harvest Date " + dateString + " !");
-			try (BufferedWriter writer = new BufferedWriter(
-				new FileWriter(new File(this.timestampfile)))) {
-			    writer.write(dateString);
-			    writer.flush();
-			} catch (IOException e) {
-			    e.printStackTrace();
-			}
-		    }
-		    do {
-			result.addAll(collectPidStrategy.collectPids(reclist));
-			ResumptionToken token = reclist.getResumptionToken();
-			if (token == null) {
-			    break;
-			}
-			reclist = oaiserver.listIdentifiers(token);
-
-		    } while (true);
-		}
+		reader = new BufferedReader(new FileReader(oaifile));
+		String input = reader.readLine();
+		fromStr = input;
 	    }
+	} catch (IOException e) {
+	    e.printStackTrace();
+	} finally {
+	    try {
+		if (reader != null)
+		    reader.close();
+	    } catch (IOException e) {
+		e.printStackTrace();
+	    }
+	}
+	return fromStr;
+    }
 
-	} catch (OAIException e) {
-	    logger.warn("Harvesting ended in an empty response! Old timestape is still correct!");
+    /**
+     * @param dateString
+     *            the response date of the first page of a harvest
+     */
+    void writeTimestamp(String dateString) {
+	logger.info("Harvest Date " + dateString + " !");
+	try (BufferedWriter writer = new BufferedWriter(new FileWriter(
+		new File(this.timestampfile)))) {
+	    writer.write(dateString);
+	    writer.flush();
+	} catch (IOException e) {
+	    e.printStackTrace();
 	}
-	logger.info("Found " + result.size() + " pids !");
-	return result;
     }
 
 }
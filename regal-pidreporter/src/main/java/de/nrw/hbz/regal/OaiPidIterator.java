@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import se.kb.oai.OAIException;
+import se.kb.oai.pmh.IdentifiersList;
+import se.kb.oai.pmh.OaiPmhServer;
+import se.kb.oai.pmh.ResumptionToken;
+
+/**
+ * Walks through the headers of the ListIdentifiers pages of one or more sets.
+ * The next page is requested when the headers of the current page have been
+ * consumed, so only one page is held in memory.
+ * 
+ * With prefetch, a background thread follows the resumption tokens and keeps
+ * up to the given number of pages ready, while the caller is still working
+ * on the current page.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+class OaiPidIterator implements Iterator<OaiHeader> {
+
+    @SuppressWarnings({ "javadoc", "serial" })
+    public class PrefetchException extends RuntimeException {
+	public PrefetchException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    /*
+     * A fetched page, the end of the harvest (list == null) or an error of
+     * the prefetch thread.
+     */
+    private static class Page {
+	final IdentifiersList list;
+	final RuntimeException error;
+
+	Page(IdentifiersList list, RuntimeException error) {
+	    this.list = list;
+	    this.error = error;
+	}
+    }
+
+    final Logger logger = LoggerFactory.getLogger(OaiPidIterator.class);
+
+    private final OaiPidGrabber grabber;
+    private final OaiPmhServer oaiserver;
+    private final String[] sets;
+    private final String from;
+    private final CollectPidStrategy collectPidStrategy;
+    private final String format;
+    private final int prefetch;
+
+    private BlockingQueue<Page> pages = null;
+    private int setIndex = 0;
+    private IdentifiersList reclist = null;
+    private Iterator<OaiHeader> current = Collections.emptyIterator();
+    private boolean finished = false;
+    private int count = 0;
+
+    /**
+     * @param grabber
+     *            the timestamp of the harvest is written by the grabber. If
+     *            null, no timestamp is written.
+     * @param oaiserver
+     *            the oai endpoint
+     * @param sets
+     *            the sets to harvest or null
+     * @param from
+     *            a from= parameter or null
+     * @param collectPidStrategy
+     *            defines how to extract pids from the oai-identifier
+     * @param format
+     *            defines a format
+     * @param prefetch
+     *            number of pages to fetch ahead. 0 fetches each page when it
+     *            is needed.
+     */
+    OaiPidIterator(OaiPidGrabber grabber, OaiPmhServer oaiserver,
+	    String[] sets, String from, CollectPidStrategy collectPidStrategy,
+	    String format, int prefetch) {
+	this.grabber = grabber;
+	this.oaiserver = oaiserver;
+	this.sets = sets;
+	this.from = from;
+	this.collectPidStrategy = collectPidStrategy;
+	this.format = format;
+	this.prefetch = prefetch;
+    }
+
+    @Override
+    public boolean hasNext() {
+	while (!current.hasNext()) {
+	    if (finished || !nextPage()) {
+		if (!finished) {
+		    finished = true;
+		    logger.info("Found " + count + " pids !");
+		}
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    @Override
+    public OaiHeader next() {
+	if (!hasNext())
+	    throw new NoSuchElementException();
+	count++;
+	return current.next();
+    }
+
+    private boolean nextPage() {
+	IdentifiersList page = prefetch > 0 ? takePage() : fetchPage();
+	if (page == null)
+	    return false;
+	current = collectPidStrategy.collectHeaders(page).iterator();
+	return true;
+    }
+
+    private IdentifiersList takePage() {
+	if (pages == null) {
+	    pages = new ArrayBlockingQueue<Page>(prefetch);
+	    Thread prefetcher = new Thread(() -> prefetch(), "oai-prefetch");
+	    prefetcher.setDaemon(true);
+	    prefetcher.start();
+	}
+	try {
+	    Page page = pages.take();
+	    if (page.error != null)
+		throw page.error;
+	    return page.list;
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new PrefetchException(e);
+	}
+    }
+
+    /*
+     * Runs in the prefetch thread. Blocks when the queue is full.
+     */
+    private void prefetch() {
+	try {
+	    IdentifiersList page = null;
+	    do {
+		Page next = null;
+		try {
+		    page = fetchPage();
+		    next = new Page(page, null);
+		} catch (RuntimeException e) {
+		    page = null;
+		    next = new Page(null, e);
+		}
+		pages.put(next);
+	    } while (page != null);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /*
+     * Returns the next page of the current set or the first page of the next
+     * set. Returns null at the end of the harvest.
+     */
+    private IdentifiersList fetchPage() {
+	try {
+	    ResumptionToken token = reclist == null ? null : reclist
+		    .getResumptionToken();
+	    if (token != null) {
+		reclist = oaiserver.listIdentifiers(token);
+	    } else if (setIndex < numberOfSets()) {
+		String set = null;
+		if (sets == null) {
+		    logger.info("Set spec is null  !");
+		} else {
+		    set = sets[setIndex].trim();
+		    logger.info("Set spec is " + set + " !");
+		}
+		reclist = oaiserver.listIdentifiers(format, from, null, set);
+		if (setIndex == 0 && grabber != null) {
+		    grabber.writeTimestamp(reclist.getResponseDate());
+		}
+		setIndex++;
+	    } else {
+		return null;
+	    }
+	} catch (OAIException e) {
+	    logger.warn("Harvesting ended in an empty response! Old timestape is still correct!");
+	    return null;
+	}
+	return reclist;
+    }
+
+    private int numberOfSets() {
+	return sets == null ? 1 : sets.length;
+    }
+}
@@ -19,6 +19,7 @@ package de.nrw.hbz.regal;
 import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 
@@ -85,6 +86,78 @@ public class PIDReporter {
 		format);
     }
 
+    /**
+     * @param pages
+     *            number of oai pages that are fetched ahead while the pids of
+     *            the current page are processed. 0 turns prefetching off.
+     */
+    public void setPrefetch(int pages) {
+	mygrabber.prefetch = pages;
+    }
+
+    /**
+     * @param threads
+     *            number of sets that are harvested at the same time, if more
+     *            than one set is given. Pids found in several sets are
+     *            returned once.
+     */
+    public void setParallelSets(int threads) {
+	mygrabber.parallelSets = threads;
+    }
+
+    /**
+     * Like harvest, but the pids are returned page by page. The next page is
+     * requested from the oai interface when the caller has consumed the
+     * current one, so processing can start before the harvest is finished.
+     * 
+     * @param sets
+     *            sets to harvest
+     * @param harvestFromScratch
+     *            if true timestamp will be ignored.
+     * @param collectPidStrategy
+     *            defines how to extract pids from oai-identifiers
+     * @param format
+     *            the provided format to look for
+     * @return the pids in harvest order
+     */
+    public Iterator<String> iterate(String sets, boolean harvestFromScratch,
+	    CollectPidStrategy collectPidStrategy, String format) {
+	Iterator<OaiHeader> headers = iterateHeaders(sets, harvestFromScratch,
+		collectPidStrategy, format);
+	return new Iterator<String>() {
+	    @Override
+	    public boolean hasNext() {
+		return headers.hasNext();
+	    }
+
+	    @Override
+	    public String next() {
+		return headers.next().getPid();
+	    }
+	};
+    }
+
+    /**
+     * Like iterate, but returns the pid together with datestamp and status
+     * of each header.
+     * 
+     * @param sets
+     *            sets to harvest
+     * @param harvestFromScratch
+     *            if true timestamp will be ignored.
+     * @param collectPidStrategy
+     *            defines how to extract pids and headers from oai-identifiers
+     * @param format
+     *            the provided format to look for
+     * @return the headers in harvest order
+     */
+    public Iterator<OaiHeader> iterateHeaders(String sets,
+	    boolean harvestFromScratch, CollectPidStrategy collectPidStrategy,
+	    String format) {
+	return mygrabber.iterateHeaders(sets, harvestFromScratch,
+		collectPidStrategy, format);
+    }
+
     /**
      * Returns a list of pids which are provided over an oai interface. The
      * exact configuration is provided by a properties file
@@ -118,10 +191,10 @@ public class PIDReporter {
 	    harvestFromScratch = true;
 	}
 
-	CollectPidStrategy collectPidStrategy = new DefaultCollectPidStrategy();
+	CollectPidStrategy collectPidStrategy = new HeaderPidStrategy();
 	String strategy = properties.getProperty("pidreporter.strategy");
 	if (strategy.equals("Digitool")) {
-	    collectPidStrategy = new DigitoolPidStrategy();
+	    collectPidStrategy = new DigitoolHeaderPidStrategy();
 	}
 	String format = properties.getProperty("pidreporter.format");
 	if (format == null || format.isEmpty()) {
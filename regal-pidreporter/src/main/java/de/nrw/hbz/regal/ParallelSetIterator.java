@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Harvests several sets at once and merges their pids. Each set is walked by
+ * its own iterator in a worker thread. A pid that is member of more than one
+ * set is returned only once.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+class ParallelSetIterator implements Iterator<OaiHeader> {
+
+    @SuppressWarnings({ "javadoc", "serial" })
+    public class SetHarvestException extends RuntimeException {
+	public SetHarvestException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    final Logger logger = LoggerFactory.getLogger(ParallelSetIterator.class);
+
+    /*
+     * Compared by identity. Each worker puts it once when its set is done.
+     */
+    private static final OaiHeader END = new OaiHeader(null);
+
+    private final BlockingQueue<OaiHeader> queue;
+    private final Queue<RuntimeException> errors = new ConcurrentLinkedQueue<RuntimeException>();
+    private final Set<String> seen = new HashSet<String>();
+    private int running;
+    private int duplicates = 0;
+    private OaiHeader next = null;
+
+    /**
+     * @param sets
+     *            one header iterator for each set
+     * @param threads
+     *            number of sets harvested at the same time
+     * @param queueSize
+     *            number of pids that are buffered
+     */
+    ParallelSetIterator(List<Iterator<OaiHeader>> sets, int threads,
+	    int queueSize) {
+	this.queue = new ArrayBlockingQueue<OaiHeader>(queueSize);
+	this.running = sets.size();
+	ExecutorService executor = Executors.newFixedThreadPool(threads,
+		runnable -> {
+		    Thread thread = new Thread(runnable, "oai-set");
+		    thread.setDaemon(true);
+		    return thread;
+		});
+	for (Iterator<OaiHeader> set : sets) {
+	    executor.execute(() -> harvest(set));
+	}
+	executor.shutdown();
+    }
+
+    private void harvest(Iterator<OaiHeader> set) {
+	try {
+	    try {
+		while (set.hasNext()) {
+		    queue.put(set.next());
+		}
+	    } catch (RuntimeException e) {
+		errors.add(e);
+	    } finally {
+		queue.put(END);
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    @Override
+    public boolean hasNext() {
+	try {
+	    while (next == null && running > 0) {
+		OaiHeader header = queue.take();
+		if (header == END) {
+		    running--;
+		    if (!errors.isEmpty())
+			throw errors.poll();
+		    if (running == 0)
+			logger.info("Found " + seen.size() + " pids in all sets, "
+				+ duplicates + " duplicates skipped !");
+		} else if (seen.add(header.getPid())) {
+		    next = header;
+		} else {
+		    duplicates++;
+		}
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new SetHarvestException(e);
+	}
+	return next != null;
+    }
+
+    @Override
+    public OaiHeader next() {
+	if (!hasNext())
+	    throw new NoSuchElementException();
+	OaiHeader result = next;
+	next = null;
+	return result;
+    }
+}
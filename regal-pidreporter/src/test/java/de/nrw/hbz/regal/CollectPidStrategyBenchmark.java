@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dom4j.DocumentHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import se.kb.oai.pmh.IdentifiersList;
+
+/**
+ * Compares the time the header walking strategies and the regex strategies
+ * take to collect the pids of a ListIdentifiers page with 5000 headers. Run
+ * with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=de.nrw.hbz.regal.CollectPidStrategyBenchmark
+ * </pre>
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class CollectPidStrategyBenchmark {
+
+    private static final int HEADERS = 5000;
+
+    private IdentifiersList page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+	StringBuilder xml = new StringBuilder();
+	xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	xml.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">");
+	xml.append("<responseDate>2014-05-12T10:00:00Z</responseDate>");
+	xml.append("<request verb=\"ListIdentifiers\" "
+		+ "metadataPrefix=\"oai_dc\">http://localhost/oai</request>");
+	xml.append("<ListIdentifiers>");
+	for (int i = 0; i < HEADERS; i++) {
+	    xml.append("<header><identifier>oai:digitool.hbz-nrw.de:" + i
+		    + "</identifier><datestamp>2014-05-12</datestamp>"
+		    + "<setSpec>edoweb</setSpec></header>");
+	}
+	xml.append("<resumptionToken completeListSize=\"" + HEADERS
+		+ "\" cursor=\"0\">token</resumptionToken>");
+	xml.append("</ListIdentifiers></OAI-PMH>");
+	page = new IdentifiersList(DocumentHelper.parseText(xml.toString()));
+    }
+
+    @Benchmark
+    public List<String> digitoolRegex() {
+	return new DigitoolPidStrategy().collectPids(page);
+    }
+
+    @Benchmark
+    public List<String> digitoolHeaders() {
+	return new DigitoolHeaderPidStrategy().collectPids(page);
+    }
+
+    @Benchmark
+    public List<String> defaultRegex() {
+	return new DefaultCollectPidStrategy().collectPids(page);
+    }
+
+    @Benchmark
+    public List<String> defaultHeaders() {
+	return new HeaderPidStrategy().collectPids(page);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		CollectPidStrategyBenchmark.class.getSimpleName()).build())
+		.run();
+    }
+}
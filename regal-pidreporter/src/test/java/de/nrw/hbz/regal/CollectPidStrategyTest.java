@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal;
+
+import java.util.List;
+
+import org.dom4j.DocumentHelper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import se.kb.oai.pmh.IdentifiersList;
+
+/**
+ * Compares the header walking strategies with the regex strategies on a large
+ * ListIdentifiers page. CollectPidStrategyBenchmark compares their speed.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class CollectPidStrategyTest {
+
+    static final int HEADERS = 5000;
+
+    IdentifiersList page = null;
+
+    @Before
+    public void setUp() throws Exception {
+	StringBuilder headers = new StringBuilder();
+	for (int i = 0; i < HEADERS; i++) {
+	    headers.append("<header><identifier>oai:digitool.hbz-nrw.de:" + i
+		    + "</identifier><datestamp>2014-05-12</datestamp>"
+		    + "<setSpec>edoweb</setSpec></header>");
+	}
+	page = page(headers.toString());
+    }
+
+    private IdentifiersList page(String headers) throws Exception {
+	StringBuilder xml = new StringBuilder();
+	xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+	xml.append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">");
+	xml.append("<responseDate>2014-05-12T10:00:00Z</responseDate>");
+	xml.append("<request verb=\"ListIdentifiers\" metadataPrefix=\"oai_dc\">http://localhost/oai</request>");
+	xml.append("<ListIdentifiers>");
+	xml.append(headers);
+	xml.append("<resumptionToken completeListSize=\"" + HEADERS
+		+ "\" cursor=\"0\">token</resumptionToken>");
+	xml.append("</ListIdentifiers></OAI-PMH>");
+	return new IdentifiersList(DocumentHelper.parseText(xml.toString()));
+    }
+
+    @Test
+    public void defaultStrategies() {
+	List<String> expected = new DefaultCollectPidStrategy()
+		.collectPids(page);
+	Assert.assertEquals(HEADERS, expected.size());
+	Assert.assertEquals(expected,
+		new HeaderPidStrategy().collectPids(page));
+    }
+
+    @Test
+    public void digitoolStrategies() {
+	List<String> expected = new DigitoolPidStrategy().collectPids(page);
+	Assert.assertEquals(HEADERS, expected.size());
+	Assert.assertEquals("0", expected.get(0));
+	Assert.assertEquals(expected,
+		new DigitoolHeaderPidStrategy().collectPids(page));
+    }
+
+    @Test
+    public void headers() throws Exception {
+	IdentifiersList reclist = page("<header><identifier>oai:dt:1</identifier>"
+		+ "<datestamp>2014-05-12</datestamp></header>"
+		+ "<header status=\"deleted\"><identifier>oai:dt:2</identifier>"
+		+ "<datestamp>2014-05-13</datestamp></header>");
+	List<OaiHeader> headers = new DigitoolHeaderPidStrategy()
+		.collectHeaders(reclist);
+	Assert.assertEquals(2, headers.size());
+	Assert.assertEquals("1", headers.get(0).getPid());
+	Assert.assertEquals("2014-05-12", headers.get(0).getDatestamp());
+	Assert.assertFalse(headers.get(0).isDeleted());
+	Assert.assertEquals("2", headers.get(1).getPid());
+	Assert.assertTrue(headers.get(1).isDeleted());
+
+	headers = new DigitoolPidStrategy().collectHeaders(reclist);
+	Assert.assertEquals(2, headers.size());
+	Assert.assertNull(headers.get(1).getDatestamp());
+	Assert.assertFalse(headers.get(1).isDeleted());
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nrw.hbz.regal.OaiHeader;
+
+/**
+ * A Pipeline runs a number of stages, e.g. download, build and ingest. Each
+ * stage has its own workers and takes its items from a bounded queue. A slow
+ * stage therefore fills up its queue and finally blocks the stages in front
+ * of it, instead of letting them run ahead.
+ *
+ * A worker that is killed by an Error fails its item and leaves. If all
+ * workers of a stage are gone, the items waiting for the stage fail, the
+ * following stages are closed and no more items are accepted.
+ *
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ *
+ */
+class Pipeline {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class PipelineInterruptedException extends RuntimeException {
+	public PipelineInterruptedException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    /**
+     * The work of a single stage for a single item
+     */
+    interface Step {
+	void run(SyncItem item) throws Exception;
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+    private static final SyncItem END = new SyncItem(null, 0);
+
+    private final int queueSize;
+    private final List<Stage> stages = new Vector<Stage>();
+    private final List<Object> metrics = new Vector<Object>();
+    private long progressInterval = 60;
+    private long lastReport = 0;
+
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final List<String> failed = Collections
+	    .synchronizedList(new Vector<String>());
+    private volatile int size = 0;
+
+    /**
+     * @param queueSize
+     *            maximum number of items waiting in front of each stage
+     */
+    Pipeline(int queueSize) {
+	this.queueSize = Math.max(1, queueSize);
+    }
+
+    /**
+     * Appends a stage to the pipeline
+     *
+     * @param name
+     *            name of the stage, used in the log
+     * @param threads
+     *            number of workers of the stage
+     * @param step
+     *            the work to do for each item
+     * @return this
+     */
+    Pipeline stage(String name, int threads, Step step) {
+	Stage stage = new Stage(name, Math.max(1, threads), step);
+	if (!stages.isEmpty()) {
+	    stages.get(stages.size() - 1).next = stage;
+	}
+	stages.add(stage);
+	return this;
+    }
+
+    /**
+     * @param metric
+     *            its toString() is appended to each progress report
+     * @return this
+     */
+    Pipeline report(Object metric) {
+	metrics.add(metric);
+	return this;
+    }
+
+    /**
+     * @param seconds
+     *            interval between two progress reports
+     */
+    void setProgressInterval(long seconds) {
+	this.progressInterval = seconds;
+    }
+
+    /**
+     * Passes all pids through all stages and returns when every pid has left
+     * the pipeline. A pid that fails in one stage is logged and not passed to
+     * the following stages. The pids are taken from the iterator as the first
+     * stage has room for them, so a harvest can still be running while the
+     * first pids are processed.
+     *
+     * @param headers
+     *            the harvested headers of the pids to process
+     */
+    void run(Iterator<OaiHeader> headers) {
+	for (Stage stage : stages) {
+	    logger.info("Stage " + stage.name + ": " + stage.threads
+		    + " threads");
+	}
+	long start = System.currentTimeMillis();
+	lastReport = start;
+	ScheduledExecutorService reporter = Executors
+		.newSingleThreadScheduledExecutor();
+	reporter.scheduleAtFixedRate(() -> logProgress(), progressInterval,
+		progressInterval, TimeUnit.SECONDS);
+	try {
+	    for (Stage stage : stages) {
+		stage.start();
+	    }
+	    Stage first = stages.get(0);
+	    try {
+		while (headers.hasNext()) {
+		    if (!first.put(new SyncItem(headers.next(), ++size))) {
+			logger.error("Stage " + first.name
+				+ " has no workers left, stop.");
+			break;
+		    }
+		}
+		logger.info("Verarbeite " + size + " Dateneinheiten.");
+	    } finally {
+		// if the harvest breaks, the pids already queued are finished
+		first.close();
+		// a stage may stop before the stages in front of it
+		for (Stage stage : stages) {
+		    stage.finished.await();
+		}
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new PipelineInterruptedException(e);
+	} finally {
+	    reporter.shutdownNow();
+	}
+	long seconds = (System.currentTimeMillis() - start) / 1000;
+	logProgress();
+	logger.info("Processed " + size + " pids in " + seconds + " s: "
+		+ succeeded.get() + " succeeded, " + failed.size()
+		+ " failed.");
+	for (String pid : failed) {
+	    logger.info("Failed: " + pid);
+	}
+    }
+
+    /**
+     * @return number of pids that passed all stages
+     */
+    int getSucceeded() {
+	return succeeded.get();
+    }
+
+    /**
+     * @return the failed pids with the stage they failed in
+     */
+    List<String> getFailed() {
+	return failed;
+    }
+
+    /*
+     * The rate of a stage is taken over the time since the last report, the
+     * last report of a run covers less than an interval.
+     */
+    private synchronized void logProgress() {
+	long now = System.currentTimeMillis();
+	double seconds = Math.max(1, now - lastReport) / 1000.0;
+	lastReport = now;
+	StringBuilder sb = new StringBuilder();
+	sb.append("Progress: " + (succeeded.get() + failed.size()) + " / "
+		+ size + " done, " + failed.size() + " failed.");
+	for (Stage stage : stages) {
+	    int processed = stage.processed.get();
+	    double rate = (processed - stage.reported) / seconds;
+	    stage.reported = processed;
+	    sb.append(String.format(" | %s: queue %d, done %d (%.2f/s)",
+		    stage.name, stage.queue.size(), processed, rate));
+	}
+	for (Object metric : metrics) {
+	    sb.append(" | " + metric);
+	}
+	logger.info(sb.toString());
+    }
+
+    private void fail(SyncItem item, Stage stage, Throwable e) {
+	failed.add(item.pid + " (" + stage.name + ")");
+	logger.error(item.pid + " " + stage.name + " failed: " + e.toString(),
+		e);
+    }
+
+    private class Stage {
+	final String name;
+	final int threads;
+	final Step step;
+	final BlockingQueue<SyncItem> queue;
+	final CountDownLatch finished;
+	final AtomicInteger processed = new AtomicInteger();
+	final AtomicInteger running;
+	volatile boolean stopped = false;
+	int reported = 0;
+	Stage next = null;
+
+	Stage(String name, int threads, Step step) {
+	    this.name = name;
+	    this.threads = threads;
+	    this.step = step;
+	    this.queue = new ArrayBlockingQueue<SyncItem>(queueSize);
+	    this.finished = new CountDownLatch(threads);
+	    this.running = new AtomicInteger(threads);
+	}
+
+	void start() {
+	    for (int i = 0; i < threads; i++) {
+		Thread worker = new Thread(() -> work(), name + "-" + i);
+		worker.setDaemon(true);
+		worker.start();
+	    }
+	}
+
+	/*
+	 * Every worker leaves after having taken one END from the queue.
+	 */
+	void close() throws InterruptedException {
+	    for (int i = 0; i < threads; i++) {
+		if (!put(END))
+		    return;
+	    }
+	}
+
+	/*
+	 * Waits for room in the queue. Returns false if the workers of the
+	 * stage are gone, the item has then failed.
+	 */
+	boolean put(SyncItem item) throws InterruptedException {
+	    while (!stopped) {
+		if (queue.offer(item, 1, TimeUnit.SECONDS)) {
+		    if (stopped && queue.remove(item)) {
+			break;
+		    }
+		    return true;
+		}
+	    }
+	    if (item != END) {
+		fail(item, this, new IllegalStateException("stage stopped"));
+	    }
+	    return false;
+	}
+
+	private void work() {
+	    try {
+		SyncItem item;
+		while ((item = queue.take()) != END) {
+		    handle(item);
+		}
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    } finally {
+		if (running.decrementAndGet() == 0) {
+		    stop();
+		}
+		finished.countDown();
+	    }
+	}
+
+	/*
+	 * Called by the last worker, when it has taken its END or has died.
+	 */
+	private void stop() {
+	    stopped = true;
+	    SyncItem item;
+	    while ((item = queue.poll()) != null) {
+		if (item != END) {
+		    fail(item, this, new IllegalStateException(
+			    "no workers left"));
+		}
+	    }
+	    if (next != null) {
+		try {
+		    next.close();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	}
+
+	private void handle(SyncItem item) throws InterruptedException {
+	    if (this == stages.get(0)) {
+		logger.info(item.number + " / " + size + " " + item.pid);
+	    }
+	    try {
+		step.run(item);
+	    } catch (Exception e) {
+		processed.incrementAndGet();
+		fail(item, this, e);
+		return;
+	    } catch (Error e) {
+		processed.incrementAndGet();
+		fail(item, this, e);
+		throw e;
+	    }
+	    processed.incrementAndGet();
+	    if (item.isDone() || next == null) {
+		succeeded.incrementAndGet();
+	    } else {
+		next.put(item);
+	    }
+	}
+    }
+}
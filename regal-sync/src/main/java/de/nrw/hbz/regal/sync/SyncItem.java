@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync;
+
+import de.nrw.hbz.regal.OaiHeader;
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+import de.nrw.hbz.regal.sync.ingest.DownloadResult;
+
+/**
+ * A SyncItem carries one pid through the stages of a Pipeline. Each stage
+ * reads what the previous stage has left and adds its own result.
+ *
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ *
+ */
+class SyncItem {
+    final OaiHeader header;
+    final String pid;
+    final int number;
+
+    DownloadResult download = null;
+    DigitalEntity entity = null;
+
+    private boolean done = false;
+
+    /**
+     * @param header
+     *            the harvested header of the pid to sync
+     * @param number
+     *            position of the pid in the harvest, starting with 1
+     */
+    SyncItem(OaiHeader header, int number) {
+	this.header = header;
+	this.pid = header == null ? null : header.getPid();
+	this.number = number;
+    }
+
+    /**
+     * Tells the pipeline that no further stage has to look at this item.
+     */
+    void done() {
+	done = true;
+    }
+
+    /**
+     * @return true if the remaining stages can be skipped
+     */
+    boolean isDone() {
+	return done;
+    }
+
+    /**
+     * @return true if an object from the cache has been downloaded again
+     */
+    boolean isUpdated() {
+	return download != null && download.isUpdated();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nrw.hbz.regal.OaiHeader;
+
+/**
+ * The SyncJournal is an append-only file in the cache directory. For each pid
+ * and phase it holds a line
+ *
+ * <pre>
+ * pid	phase	outcome	timestamp
+ * </pre>
+ *
+ * The outcome is FAILED or, for a successful phase, OK. The download phase
+ * writes the status of the DownloadResult instead of OK. A pid that has been
+ * deleted at the OAI provider and in the archive is recorded as ingest
+ * DELETED. Each line is flushed when it is written, so after a crash the
+ * journal tells which pids have been ingested and where the others stopped.
+ * The harvest line of a pid keeps its OAI header: the outcome is DELETED for
+ * a deleted record, and the datestamp, if known, follows the timestamp. So a
+ * resumed run handles the pid like the interrupted one.
+ *
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ *
+ */
+class SyncJournal implements Closeable {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class JournalException extends RuntimeException {
+	public JournalException(Throwable cause) {
+	    super(cause);
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(SyncJournal.class);
+
+    static final String FILE_NAME = ".syncjournal";
+
+    static final String HARVEST = "harvest";
+    static final String DOWNLOAD = "download";
+    static final String BUILD = "build";
+    static final String INGEST = "ingest";
+
+    static final String OK = "OK";
+    static final String FAILED = "FAILED";
+    static final String DELETED = "DELETED";
+
+    private final File file;
+    private final Map<String, Map<String, String>> outcomes = new LinkedHashMap<String, Map<String, String>>();
+    private final Map<String, String> datestamps =
+	    new HashMap<String, String>();
+    private BufferedWriter writer = null;
+
+    /**
+     * Opens the journal in the given directory.
+     *
+     * @param directory
+     *            the cache directory
+     * @param resume
+     *            if true the entries of an existing journal are read and new
+     *            entries are appended. If false the journal starts empty.
+     */
+    SyncJournal(String directory, boolean resume) {
+	file = new File(directory, FILE_NAME);
+	try {
+	    if (resume && file.exists()) {
+		load();
+	    }
+	    file.getParentFile().mkdirs();
+	    writer = new BufferedWriter(new FileWriter(file, resume));
+	} catch (IOException e) {
+	    throw new JournalException(e);
+	}
+    }
+
+    private void load() throws IOException {
+	try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+	    String line = null;
+	    while ((line = reader.readLine()) != null) {
+		String[] fields = line.split("\t");
+		if (fields.length < 4) {
+		    // last line of a crashed run
+		    continue;
+		}
+		put(fields[0], fields[1], fields[2]);
+		if (HARVEST.equals(fields[1]) && fields.length > 4)
+		    datestamps.put(fields[0], fields[4]);
+	    }
+	}
+	logger.info("Read journal " + file.getAbsolutePath() + " with "
+		+ outcomes.size() + " pids.");
+    }
+
+    private void put(String pid, String phase, String outcome) {
+	Map<String, String> phases = outcomes.get(pid);
+	if (phases == null) {
+	    phases = new HashMap<String, String>();
+	    outcomes.put(pid, phases);
+	}
+	phases.put(phase, outcome);
+    }
+
+    /**
+     * Appends a line to the journal
+     *
+     * @param pid
+     *            the pid
+     * @param phase
+     *            the phase the pid has reached
+     * @param outcome
+     *            OK, FAILED or the status of a download
+     */
+    synchronized void record(String pid, String phase, String outcome) {
+	put(pid, phase, outcome);
+	try {
+	    write(pid, phase, outcome);
+	    writer.flush();
+	} catch (IOException e) {
+	    throw new JournalException(e);
+	}
+    }
+
+    /**
+     * Records the harvest of a pid that is not yet in the journal, together
+     * with its datestamp and deleted status. The line is flushed together
+     * with the next outcome.
+     *
+     * @param header
+     *            the OAI header of a pid of the run
+     */
+    synchronized void recordHarvest(OaiHeader header) {
+	String pid = header.getPid();
+	if (getOutcome(pid, HARVEST) != null)
+	    return;
+	String outcome = header.isDeleted() ? DELETED : OK;
+	put(pid, HARVEST, outcome);
+	try {
+	    if (header.getDatestamp() == null) {
+		write(pid, HARVEST, outcome);
+	    } else {
+		datestamps.put(pid, header.getDatestamp());
+		writer.write(pid + "\t" + HARVEST + "\t" + outcome + "\t"
+			+ Instant.now() + "\t" + header.getDatestamp() + "\n");
+	    }
+	} catch (IOException e) {
+	    throw new JournalException(e);
+	}
+    }
+
+    private void write(String pid, String phase, String outcome)
+	    throws IOException {
+	writer.write(pid + "\t" + phase + "\t" + outcome + "\t"
+		+ Instant.now() + "\n");
+    }
+
+    /**
+     * @return the OAI headers of the pids that have been harvested in the
+     *         journaled run, in harvest order
+     */
+    synchronized List<OaiHeader> getHarvested() {
+	List<OaiHeader> result = new Vector<OaiHeader>();
+	for (Map.Entry<String, Map<String, String>> entry : outcomes
+		.entrySet()) {
+	    String outcome = entry.getValue().get(HARVEST);
+	    if (outcome != null)
+		result.add(new OaiHeader(entry.getKey(), datestamps.get(entry
+			.getKey()), DELETED.equals(outcome)));
+	}
+	return result;
+    }
+
+    /**
+     * @param pid
+     *            the pid
+     * @param phase
+     *            a phase
+     * @return the last outcome of the phase or null if the pid has not
+     *         reached the phase
+     */
+    synchronized String getOutcome(String pid, String phase) {
+	Map<String, String> phases = outcomes.get(pid);
+	if (phases == null)
+	    return null;
+	return phases.get(phase);
+    }
+
+    /**
+     * @param pid
+     *            the pid
+     * @param phase
+     *            a phase
+     * @return true if the last outcome of the phase has not been FAILED
+     */
+    boolean hasSucceeded(String pid, String phase) {
+	String outcome = getOutcome(pid, phase);
+	return outcome != null && !FAILED.equals(outcome);
+    }
+
+    @Override
+    public synchronized void close() {
+	try {
+	    writer.close();
+	} catch (IOException e) {
+	    throw new JournalException(e);
+	}
+    }
+}
@@ -20,8 +20,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
@@ -29,13 +35,21 @@ import org.apache.commons.cli.Options;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import de.nrw.hbz.regal.DigitoolPidStrategy;
+import de.nrw.hbz.regal.DigitoolHeaderPidStrategy;
+import de.nrw.hbz.regal.OaiHeader;
 import de.nrw.hbz.regal.PIDReporter;
-import de.nrw.hbz.regal.sync.extern.DigitalEntity;
 import de.nrw.hbz.regal.sync.extern.DigitalEntityBuilderInterface;
+import de.nrw.hbz.regal.sync.ingest.ChecksumCache;
+import de.nrw.hbz.regal.sync.ingest.ConcurrencyLimit;
+import de.nrw.hbz.regal.sync.ingest.DownloadResult;
+import de.nrw.hbz.regal.sync.ingest.DownloadResult.Status;
 import de.nrw.hbz.regal.sync.ingest.DownloaderInterface;
+import de.nrw.hbz.regal.sync.ingest.HttpTransport;
 import de.nrw.hbz.regal.sync.ingest.IngestInterface;
 import de.nrw.hbz.regal.sync.ingest.KeystoreConf;
+import de.nrw.hbz.regal.sync.ingest.RateLimits;
+import de.nrw.hbz.regal.sync.ingest.RetryPolicy;
+import de.nrw.hbz.regal.sync.ingest.WebclientConf;
 
 /**
  * @author Jan Schnasse, schnasse@hbz-nrw.de
@@ -56,6 +70,13 @@ public class Syncer {
 	}
     }
 
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class DownloadFailedException extends RuntimeException {
+	public DownloadFailedException(String message, Throwable cause) {
+	    super(message, cause);
+	}
+    }
+
     @SuppressWarnings({ "serial", "javadoc" })
     public class IngestItemException extends RuntimeException {
 	public IngestItemException(Throwable cause) {
@@ -68,7 +89,8 @@ public class Syncer {
     private PIDReporter harvester;
     private IngestInterface ingester;
     private DownloaderInterface downloader;
-    private DigitalEntityBuilderInterface builder;
+    private ThreadLocal<DigitalEntityBuilderInterface> builders;
+    private boolean sharedBuilder;
     private String mode;
     private String user;
     private String password;
@@ -82,6 +104,15 @@ public class Syncer {
     private String pidListFile;
     private Options options;
     private String namespace;
+    private int downloadThreads = 1;
+    private int buildThreads = 1;
+    private int ingestThreads = 1;
+    private int queueSize = 100;
+    private boolean resume = false;
+    private int prefetch = 0;
+    private int parallelSets = 1;
+    private SyncJournal journal = null;
+    private List<Object> metrics = new Vector<Object>();
     KeystoreConf kconf = null;
 
     /**
@@ -91,13 +122,31 @@ public class Syncer {
      *            the downloader is used to download data from a foreign system
      * @param builder
      *            the builder assembles DigitalEntities from the downloaded data
-     *            and passes it to the ingester.
+     *            and passes it to the ingester. Since a single builder is
+     *            shared, the build stage runs with one thread.
      */
     public Syncer(IngestInterface ingester, DownloaderInterface downloader,
 	    DigitalEntityBuilderInterface builder) {
+	this(ingester, downloader, () -> builder);
+	this.sharedBuilder = true;
+    }
+
+    /**
+     * @param ingester
+     *            the ingester is used to pass data to the archive
+     * @param downloader
+     *            the downloader is used to download data from a foreign system
+     * @param builders
+     *            creates a builder for each thread of the build stage. The
+     *            builder assembles DigitalEntities from the downloaded data
+     *            and passes it to the ingester.
+     */
+    public Syncer(IngestInterface ingester, DownloaderInterface downloader,
+	    Supplier<DigitalEntityBuilderInterface> builders) {
 	this.ingester = ingester;
 	this.downloader = downloader;
-	this.builder = builder;
+	this.builders = ThreadLocal.withInitial(builders);
+	this.sharedBuilder = false;
 	options = new Options();
 
 	options.addOption("?", "help", false, "Print usage information");
@@ -139,6 +188,58 @@ public class Syncer {
 		"Specify a keystore for ssl");
 	options.addOption("keystorePassword", "keystorePassword", true,
 		"Specify a keystore password for ssl");
+	options.addOption("threads", "threads", true,
+		"Default number of threads for each stage. Default: 1");
+	options.addOption("downloadThreads", "downloadThreads", true,
+		"Number of threads downloading pids. Default: --threads");
+	options.addOption("buildThreads", "buildThreads", true,
+		"Number of threads building DigitalEntities. Default: --threads");
+	options.addOption("ingestThreads", "ingestThreads", true,
+		"Number of threads ingesting DigitalEntities. Default: --threads");
+	options.addOption("queueSize", "queueSize", true,
+		"Number of pids waiting in front of each stage. Default: 100");
+	options.addOption("prefetch", "prefetch", true,
+		"Number of OAI pages fetched ahead during the harvest. Default: 0");
+	options.addOption("parallelSets", "parallelSets", true,
+		"Number of OAI sets harvested at the same time. Default: 1");
+	options.addOption("connectTimeout", "connectTimeout", true,
+		"Connect timeout of downloads in ms. Default: "
+			+ HttpTransport.DEFAULT_CONNECT_TIMEOUT);
+	options.addOption("readTimeout", "readTimeout", true,
+		"Read timeout of downloads in ms. Default: "
+			+ HttpTransport.DEFAULT_READ_TIMEOUT);
+	options.addOption("hostConnections", "hostConnections", true,
+		"Number of concurrent downloads from one host. Default: "
+			+ HttpTransport.DEFAULT_CONNECTIONS_PER_HOST);
+	options.addOption("partThreads", "partThreads", true,
+		"Number of threads ingesting the steps and parts of an object at the same time. Default: 0");
+	options.addOption("apiConnections", "apiConnections", true,
+		"Number of pooled connections to the api. Default: max(8, --ingestThreads + --partThreads)");
+	options.addOption("apiLimit", "apiLimit", true,
+		"Initial number of concurrent api calls. The limit adapts to the latency of the api, up to --apiConnections. 0 disables the adaptive limit. Default: 4");
+	options.addOption("apiConnectTimeout", "apiConnectTimeout", true,
+		"Connect timeout of api calls in ms. Default: 10000");
+	options.addOption("apiReadTimeout", "apiReadTimeout", true,
+		"Read timeout of api calls in ms. Default: 600000");
+	options.addOption("chunkSize", "chunkSize", true,
+		"Chunk size of uploads in bytes. Default: 65536");
+	options.addOption("retries", "retries", true,
+		"Number of retries of a download or an idempotent api call that failed with a timeout or a 5xx status. Default: "
+			+ RetryPolicy.DEFAULT_RETRIES);
+	options.addOption("retryDelay", "retryDelay", true,
+		"Delay before the first retry in ms. It doubles with each retry. Default: "
+			+ RetryPolicy.DEFAULT_DELAY);
+	options.addOption("breakerPause", "breakerPause", true,
+		"Pause of all workers in ms, if more than half of the recent downloads or api calls failed. 0 disables the pause. Default: "
+			+ RetryPolicy.DEFAULT_PAUSE);
+	options.addOption("rateLimits", "rateLimits", true,
+		"Properties file with token bucket rate limits per host, e.g. digitool.hbz-nrw.de = 2/5 07:00-20:00, 20 allows 2 requests per second with bursts of 5 from 7am to 8pm and 20 otherwise. The file is reloaded when it changes.");
+	options.addOption("bulk", "bulk", false,
+		"Send the metadata calls of an object in bulk requests to the api. Falls back to single calls if the api has no bulk endpoint.");
+	options.addOption("batchSize", "batchSize", true,
+		"Maximum number of calls in a bulk request. Default: 100");
+	options.addOption("resume", "resume", false,
+		"Continue an interrupted run. Pids that have been ingested are skipped, the others restart at the phase that failed.");
     }
 
     /**
@@ -164,7 +265,44 @@ public class Syncer {
      *            on. -p,--password &lt;arg&gt; Specify password -set,--set
      *            &lt;arg&gt; Specify an OAI setSpec -timestamp,--timestamp
      *            &lt;arg&gt; Specify a local file e.g. .oaitimestamp -u,--user
-     *            &lt;arg&gt; Specify username
+     *            &lt;arg&gt; Specify username -threads,--threads &lt;arg&gt;
+     *            Default number of threads for each stage
+     *            -downloadThreads,--downloadThreads &lt;arg&gt; Number of
+     *            threads downloading pids -buildThreads,--buildThreads
+     *            &lt;arg&gt; Number of threads building DigitalEntities
+     *            -ingestThreads,--ingestThreads &lt;arg&gt; Number of threads
+     *            ingesting DigitalEntities -queueSize,--queueSize &lt;arg&gt;
+     *            Number of pids waiting in front of each stage
+     *            -prefetch,--prefetch &lt;arg&gt; Number of OAI pages
+     *            fetched ahead during the harvest -parallelSets,--parallelSets
+     *            &lt;arg&gt; Number of OAI sets harvested at the same time
+     *            -connectTimeout,--connectTimeout &lt;arg&gt; Connect timeout
+     *            of downloads in ms -readTimeout,--readTimeout &lt;arg&gt;
+     *            Read timeout of downloads in ms
+     *            -hostConnections,--hostConnections &lt;arg&gt; Number of
+     *            concurrent downloads from one host
+     *            -partThreads,--partThreads &lt;arg&gt; Number of threads
+     *            ingesting the steps and parts of an object at the same time
+     *            -apiConnections,--apiConnections &lt;arg&gt; Number of
+     *            pooled connections to the api -apiLimit,--apiLimit
+     *            &lt;arg&gt; Initial number of concurrent api calls, adapted
+     *            to the latency of the api
+     *            -apiConnectTimeout,--apiConnectTimeout &lt;arg&gt; Connect
+     *            timeout of api calls in ms -apiReadTimeout,--apiReadTimeout
+     *            &lt;arg&gt; Read timeout of api calls in ms
+     *            -chunkSize,--chunkSize &lt;arg&gt; Chunk size of uploads in
+     *            bytes -retries,--retries &lt;arg&gt; Number of retries of
+     *            a download or an idempotent api call
+     *            -retryDelay,--retryDelay &lt;arg&gt; Delay before the first
+     *            retry in ms -breakerPause,--breakerPause &lt;arg&gt; Pause of
+     *            all workers in ms, if more than half of the recent calls
+     *            failed -rateLimits,--rateLimits &lt;arg&gt; Properties file
+     *            with rate limits per host and time of day -bulk,--bulk Send
+     *            the metadata calls of an object in bulk requests to the api
+     *            -batchSize,--batchSize &lt;arg&gt; Maximum number of calls
+     *            in a bulk request -resume,--resume Continue an interrupted
+     *            run with the pids
+     *            of the sync journal in the cache directory
      */
     public void main(String[] args) {
 	init(args);
@@ -207,13 +345,100 @@ public class Syncer {
 	if (config.hasOption("list")) {
 	    pidListFile = config.getOptionValue("list");
 	}
+	int threads = getInt(config, "threads", 1);
+	downloadThreads = getInt(config, "downloadThreads", threads);
+	buildThreads = getInt(config, "buildThreads", threads);
+	ingestThreads = getInt(config, "ingestThreads", threads);
+	queueSize = getInt(config, "queueSize", queueSize);
+	resume = config.hasOption("resume");
+	parallelSets = getInt(config, "parallelSets", parallelSets);
+	if (config.hasOption("prefetch")) {
+	    prefetch = Math.max(0,
+		    Integer.parseInt(config.getOptionValue("prefetch")));
+	}
+	if (sharedBuilder && buildThreads > 1) {
+	    logger.info("Builder is shared. Build with one thread.");
+	    buildThreads = 1;
+	}
+
+	if (config.hasOption("hostConnections")) {
+	    // must be known before the first connection is kept alive
+	    System.setProperty("http.maxConnections",
+		    config.getOptionValue("hostConnections"));
+	}
+	HttpTransport transport = HttpTransport.getDefault();
+	transport.setConnectionsPerHost(getInt(config, "hostConnections",
+		transport.getConnectionsPerHost()));
+	transport.setConnectTimeout(getInt(config, "connectTimeout",
+		transport.getConnectTimeout()));
+	transport.setReadTimeout(getInt(config, "readTimeout",
+		transport.getReadTimeout()));
+	configure(transport.getRetryPolicy(), config);
+	if (config.hasOption("rateLimits")) {
+	    RateLimits.getDefault().load(
+		    new File(config.getOptionValue("rateLimits")));
+	}
 
 	harvester = new de.nrw.hbz.regal.PIDReporter(oai, timestamp);
+	harvester.setPrefetch(prefetch);
+	harvester.setParallelSets(parallelSets);
 	downloader.init(dtl, cache);
+	ChecksumCache.getDefault().open(new File(cache));
 	KeystoreConf kconf = new KeystoreConf();
 	kconf.location = config.getOptionValue("keystoreLocation");
 	kconf.password = config.getOptionValue("keystorePassword");
-	ingester.init(host, user, password, namespace, kconf);
+	WebclientConf wconf = new WebclientConf();
+	if (config.hasOption("partThreads")) {
+	    wconf.partThreads = Math.max(0,
+		    Integer.parseInt(config.getOptionValue("partThreads")));
+	}
+	wconf.maxConnectionsPerHost = getInt(config, "apiConnections",
+		Math.max(wconf.maxConnectionsPerHost, ingestThreads
+			+ wconf.partThreads));
+	int apiLimit = config.hasOption("apiLimit") ? Integer.parseInt(config
+		.getOptionValue("apiLimit")) : 4;
+	wconf.concurrencyLimit = apiLimit > 0 ? new ConcurrencyLimit("api",
+		apiLimit, wconf.maxConnectionsPerHost) : null;
+	wconf.connectTimeout = getInt(config, "apiConnectTimeout",
+		wconf.connectTimeout);
+	wconf.readTimeout = getInt(config, "apiReadTimeout", wconf.readTimeout);
+	wconf.chunkSize = getInt(config, "chunkSize", wconf.chunkSize);
+	wconf.bulk = config.hasOption("bulk");
+	wconf.batchSize = getInt(config, "batchSize", wconf.batchSize);
+	configure(wconf.retryPolicy, config);
+	metrics.add(transport.getRetryPolicy());
+	metrics.add(wconf.retryPolicy);
+	if (wconf.concurrencyLimit != null) {
+	    metrics.add(wconf.concurrencyLimit);
+	}
+	if (config.hasOption("rateLimits")) {
+	    metrics.add(RateLimits.getDefault());
+	}
+	metrics.add(ChecksumCache.getDefault());
+	ingester.init(host, user, password, namespace, kconf, wconf);
+    }
+
+    private void configure(RetryPolicy policy,
+	    DigitoolDownloadConfiguration config) {
+	if (config.hasOption("retries")) {
+	    policy.setRetries(Integer.parseInt(config
+		    .getOptionValue("retries")));
+	}
+	if (config.hasOption("retryDelay")) {
+	    policy.setDelay(Integer.parseInt(config
+		    .getOptionValue("retryDelay")));
+	}
+	if (config.hasOption("breakerPause")) {
+	    policy.setPause(Integer.parseInt(config
+		    .getOptionValue("breakerPause")));
+	}
+    }
+
+    private int getInt(DigitoolDownloadConfiguration config, String key,
+	    int defaultValue) {
+	if (!config.hasOption(key))
+	    return defaultValue;
+	return Math.max(1, Integer.parseInt(config.getOptionValue(key)));
     }
 
     private void showHelp(Options opts) {
@@ -251,77 +476,46 @@ public class Syncer {
 	boolean harvestFromScratch = true;
 	boolean forceDownload = true;
 
-	List<String> pids = harvester.harvest(sets, harvestFromScratch,
-		new DigitoolPidStrategy(), "oai_dc");
-	logger.info("Verarbeite " + pids.size() + " Dateneinheiten.");
-
-	int size = pids.size();
-	for (int i = 0; i < size; i++) {
-	    try {
-		logger.info((i + 1) + " / " + size);
-		String pid = pids.get(i);
-		String baseDir = downloader.download(pid, forceDownload);
-		logger.info("\tBuild Bean \t" + pid);
-
-		if (!downloader.hasUpdated()) {
-		    logger.info("New Files Available: Start Ingest!");
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
-
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		} else if (downloader.hasUpdated()) {
-		    logger.info("Update Files!");
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		}
-
-	    } catch (Exception e) {
-		logger.error("", e);
+	Iterator<OaiHeader> pids = harvest(sets, harvestFromScratch);
 
+	run(pids, item -> download(item, forceDownload), item -> {
+	    if (!item.isUpdated()) {
+		logger.info("New Files Available: Start Ingest!");
+	    } else {
+		logger.info("Update Files!");
 	    }
-	}
-
+	    build(item);
+	}, item -> ingester.ingest(item.entity));
     }
 
     /*
      * +
      * "SYNC: Modified or new PIDs will be downloaded and updated or created\n "
+     * Deleted PIDs will be deleted without download. Cached PIDs whose
+     * datestamp has not changed are neither downloaded nor updated.
      */
     void sync(String sets) {
 	boolean harvestFromScratch = false;
 	boolean forceDownload = true;
 
-	List<String> pids = harvester.harvest(sets, harvestFromScratch,
-		new DigitoolPidStrategy(), "oai_dc");
-	logger.info("Verarbeite " + pids.size() + " Dateneinheiten.");
+	Iterator<OaiHeader> pids = harvest(sets, harvestFromScratch);
 
-	int size = pids.size();
-	for (int i = 0; i < size; i++) {
-	    try {
-		logger.info((i + 1) + " / " + size);
-		String pid = pids.get(i);
-		String baseDir = downloader.download(pid, forceDownload);
-		logger.info("\tBuild Bean \t" + pid);
-
-		if (!downloader.hasUpdated()) {
-		    logger.info("New Files Available: Start Ingest!");
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
-
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		} else if (downloader.hasUpdated()) {
-		    logger.info("Update Files!");
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
-		    ingester.update(dtlBean);
-		    dtlBean = null;
+	run(pids, item -> {
+	    if (!deleted(item, true)) {
+		download(item, forceDownload, true);
+		if (item.download.getStatus() == Status.SKIPPED) {
+		    item.done();
 		}
-
-	    } catch (Exception e) {
-		logger.error(e.toString(), e);
 	    }
-	}
-
+	}, item -> build(item), item -> {
+	    if (item.download.getStatus() == Status.NEW) {
+		logger.info("New Files Available: Start Ingest!");
+		ingester.ingest(item.entity);
+	    } else {
+		logger.info("Update Files!");
+		ingester.update(item.entity);
+	    }
+	});
     }
 
     /*
@@ -331,30 +525,17 @@ public class Syncer {
     void cont(String sets) {
 	boolean harvestFromScratch = true;
 	boolean forceDownload = false;
-	List<String> pids = harvester.harvest(sets, harvestFromScratch,
-		new DigitoolPidStrategy(), "oai_dc");
-	logger.info("Verarbeite " + pids.size() + " Dateneinheiten.");
-	int size = pids.size();
-	for (int i = 0; i < size; i++) {
-	    try {
-		logger.info((i + 1) + " / " + size);
-		String pid = pids.get(i);
-		String baseDir = downloader.download(pid, forceDownload);
-		logger.info("\tBuild Bean \t" + pid);
-
-		if (!downloader.hasUpdated() && downloader.hasDownloaded()) {
-		    logger.info("New Files Available: Start Ingest!");
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
+	Iterator<OaiHeader> pids = harvest(sets, harvestFromScratch);
 
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		}
-
-	    } catch (Exception e) {
-		logger.error(e.toString(), e);
+	run(pids, item -> {
+	    download(item, forceDownload);
+	    if (item.download.getStatus() != Status.NEW) {
+		item.done();
 	    }
-	}
-
+	}, item -> {
+	    logger.info("New Files Available: Start Ingest!");
+	    build(item);
+	}, item -> ingester.ingest(item.entity));
     }
 
     /*
@@ -365,64 +546,198 @@ public class Syncer {
 	boolean harvestFromScratch = false;
 	boolean forceDownload = false;
 
-	List<String> pids = harvester.harvest(sets, harvestFromScratch,
-		new DigitoolPidStrategy(), "oai_dc");
-	logger.info("Verarbeite " + pids.size() + " Dateneinheiten.");
+	Iterator<OaiHeader> pids = harvest(sets, harvestFromScratch);
 
-	int size = pids.size();
-	for (int i = 0; i < size; i++) {
-	    try {
-		logger.info((i + 1) + " / " + size);
-		String pid = pids.get(i);
-		String baseDir = downloader.download(pid, forceDownload);
-		logger.info("\tBuild Bean \t" + pid);
-
-		logger.info("New Files Available: Start Ingest!");
-		DigitalEntity dtlBean = builder.build(baseDir, pid);
-		ingester.delete(pid);
-		ingester.ingest(dtlBean);
-		dtlBean = null;
-
-	    } catch (Exception e) {
-		logger.error(e.toString(), e);
-	    }
-	}
+	run(pids, item -> download(item, forceDownload), item -> build(item),
+		item -> {
+		    logger.info("New Files Available: Start Ingest!");
+		    ingester.delete(item.pid);
+		    ingester.ingest(item.entity);
+		});
     }
 
     void pidl(String pidFile) {
 	Vector<String> pids;
 
 	pids = readPidlist(pidFile);
-	int size = pids.size();
-	for (int i = 0; i < size; i++) {
-	    try {
-		logger.info((i + 1) + " / " + size);
-		String pid = pids.get(i);
+	run(headers(pids), item -> download(item, false), item -> build(item),
+		item -> {
+		    ingester.ingest(item.entity);
+		    if (!item.isUpdated()) {
+			logger.info(item.pid + " has been processed!\n");
+		    } else {
+			logger.info(item.pid + " has been updated!\n");
+		    }
+		});
+    }
 
-		String baseDir = downloader.download(pid, false);
+    /*
+     * On resume the pids of the interrupted run are taken from the journal,
+     * since the timestamp file has already been moved forward by its harvest.
+     */
+    private Iterator<OaiHeader> harvest(String sets,
+	    boolean harvestFromScratch) {
+	if (resume) {
+	    List<OaiHeader> headers = getJournal().getHarvested();
+	    if (!headers.isEmpty()) {
+		logger.info("Resume " + headers.size() + " pids from journal.");
+		return headers.iterator();
+	    }
+	}
+	return harvester.iterateHeaders(sets, harvestFromScratch,
+		new DigitoolHeaderPidStrategy(), "oai_dc");
+    }
 
-		if (!downloader.hasUpdated()) {
+    private Iterator<OaiHeader> headers(List<String> pids) {
+	List<OaiHeader> headers = new Vector<OaiHeader>();
+	for (String pid : pids) {
+	    headers.add(new OaiHeader(pid));
+	}
+	return headers.iterator();
+    }
 
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
+    private SyncJournal getJournal() {
+	if (journal == null) {
+	    journal = new SyncJournal(cache, resume);
+	}
+	return journal;
+    }
 
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		    logger.info((i + 1) + "/" + size + " " + pid
-			    + " has been processed!\n");
-		} else if (downloader.hasUpdated()) {
+    /**
+     * Runs download, build and ingest as stages of a Pipeline. Each stage
+     * uses the number of threads configured for it. The outcome of each stage
+     * is written to the sync journal. The pipeline starts with the first pid
+     * of the harvest.
+     * 
+     * @param pids
+     *            the harvested headers of the pids to process
+     * @param download
+     *            downloads a single pid
+     * @param build
+     *            builds the DigitalEntity of a single pid
+     * @param ingest
+     *            ingests the DigitalEntity of a single pid
+     */
+    void run(Iterator<OaiHeader> pids, Pipeline.Step download,
+	    Pipeline.Step build, Pipeline.Step ingest) {
+	getJournal();
+	AtomicInteger skipped = new AtomicInteger();
+	try {
+	    Pipeline pipeline = new Pipeline(queueSize);
+	    for (Object metric : metrics) {
+		pipeline.report(metric);
+	    }
+	    pipeline.stage("download", downloadThreads,
+		    journaled(SyncJournal.DOWNLOAD, download))
+		    .stage("build", buildThreads,
+			    journaled(SyncJournal.BUILD, build))
+		    .stage("ingest", ingestThreads,
+			    journaled(SyncJournal.INGEST, ingest))
+		    .run(journaled(pids, skipped));
+	    if (resume) {
+		logger.info("Skipped " + skipped.get()
+			+ " pids that have already been ingested.");
+	    }
+	} finally {
+	    journal.close();
+	    journal = null;
+	}
+    }
 
-		    DigitalEntity dtlBean = builder.build(baseDir, pids.get(i));
-		    ingester.ingest(dtlBean);
-		    dtlBean = null;
-		    logger.info((i + 1) + "/" + size + " " + pid
-			    + " has been updated!\n");
-		}
+    /*
+     * Records each harvested pid in the journal. On resume pids that have
+     * already been ingested are skipped.
+     */
+    private Iterator<OaiHeader> journaled(Iterator<OaiHeader> pids,
+	    AtomicInteger skipped) {
+	return StreamSupport
+		.stream(Spliterators.spliteratorUnknownSize(pids,
+			Spliterator.ORDERED), false)
+		.peek(header -> journal.recordHarvest(header))
+		.filter(header -> {
+		    if (resume
+			    && journal.hasSucceeded(header.getPid(),
+				    SyncJournal.INGEST)) {
+			skipped.incrementAndGet();
+			return false;
+		    }
+		    return true;
+		}).iterator();
+    }
 
+    private Pipeline.Step journaled(String phase, Pipeline.Step step) {
+	return item -> {
+	    try {
+		step.run(item);
 	    } catch (Exception e) {
-		logger.error(e.toString(), e);
+		journal.record(item.pid, phase, SyncJournal.FAILED);
+		throw e;
+	    }
+	    String outcome = SyncJournal.OK;
+	    if (SyncJournal.DOWNLOAD.equals(phase) && item.download != null) {
+		outcome = item.download.getStatus().toString();
+	    }
+	    journal.record(item.pid, phase, outcome);
+	};
+    }
+
+    /*
+     * A record that has been deleted at the OAI provider can not be
+     * downloaded. If delete is true, it is deleted in the archive, too.
+     * Otherwise it is skipped.
+     */
+    private boolean deleted(SyncItem item, boolean delete) {
+	if (!item.header.isDeleted())
+	    return false;
+	if (delete) {
+	    logger.info(item.pid + " has been deleted at the OAI provider. Delete!");
+	    ingester.delete(item.pid);
+	    journal.record(item.pid, SyncJournal.INGEST, SyncJournal.DELETED);
+	} else {
+	    logger.info(item.pid + " has been deleted at the OAI provider. Skip!");
+	}
+	item.done();
+	return true;
+    }
+
+    private void download(SyncItem item, boolean forceDownload)
+	    throws IOException {
+	download(item, forceDownload, false);
+    }
+
+    /*
+     * If a resumed pid has already been downloaded, the cache is used and the
+     * pid keeps the status of its first download. Otherwise it is downloaded
+     * as usual and the datestamp of its header is recorded. With skipCurrent,
+     * a cached pid is only downloaded again if the datestamp is newer than
+     * the recorded one.
+     */
+    private void download(SyncItem item, boolean forceDownload,
+	    boolean skipCurrent) throws IOException {
+	if (deleted(item, false))
+	    return;
+	if (resume && journal.hasSucceeded(item.pid, SyncJournal.DOWNLOAD)) {
+	    Status previous = Status.valueOf(journal.getOutcome(item.pid,
+		    SyncJournal.DOWNLOAD));
+	    item.download = downloader.fetch(item.pid, false);
+	    if (item.download.getStatus() == Status.SKIPPED) {
+		item.download = new DownloadResult(
+			item.download.getDirectory(), previous, 0, 0, null);
 	    }
+	} else {
+	    item.download = downloader.fetch(item.pid, forceDownload,
+		    item.header.getDatestamp(), skipCurrent);
+	}
+	if (item.download.getStatus() == Status.FAILED) {
+	    throw new DownloadFailedException(item.pid + " "
+		    + item.download, item.download.getCause());
 	}
+    }
 
+    private void build(SyncItem item) {
+	logger.info("\tBuild Bean \t" + item.pid);
+	item.entity = builders.get().build(item.download.getDirectory(),
+		item.pid);
     }
 
     void dele(String pidFile) {
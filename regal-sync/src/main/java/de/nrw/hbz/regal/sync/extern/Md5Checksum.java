@@ -1,16 +1,28 @@
 package de.nrw.hbz.regal.sync.extern;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.nrw.hbz.regal.sync.ingest.ChecksumCache;
+import de.nrw.hbz.regal.sync.ingest.Md5Sidecar;
 
 /**
  * Copied from
  * http://stackoverflow.com/questions/304268/getting-a-files-md5-checksum
  * -in-java
  * 
+ * Checksums of files are looked up in the ChecksumCache first, so an
+ * unchanged file is hashed only once. Files are hashed by Md5Sidecar.digest
+ * through a direct buffer, streams are read with a 64 KB buffer.
+ * 
  */
 public class Md5Checksum {
 
@@ -21,14 +33,16 @@ public class Md5Checksum {
 	}
     }
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * @param file
      *            the file you want to get the checksum from
      * @return checksum as byte array
      */
     public byte[] createChecksum(File file) {
-	try (InputStream fis = new FileInputStream(file)) {
-	    return createChecksum(fis);
+	try {
+	    return Md5Sidecar.digest(file);
 	} catch (Exception e) {
 	    throw new Md5ChecksumException(e);
 	}
@@ -42,16 +56,13 @@ public class Md5Checksum {
      */
     public byte[] createChecksum(InputStream fis) {
 	try {
-	    byte[] buffer = new byte[1024];
-	    MessageDigest complete = MessageDigest.getInstance("MD5");
+	    byte[] buffer = new byte[BUFFER_SIZE];
+	    MessageDigest complete = Md5Sidecar.newDigest();
 	    int numRead;
 
-	    do {
-		numRead = fis.read(buffer);
-		if (numRead > 0) {
-		    complete.update(buffer, 0, numRead);
-		}
-	    } while (numRead != -1);
+	    while ((numRead = fis.read(buffer)) != -1) {
+		complete.update(buffer, 0, numRead);
+	    }
 
 	    return complete.digest();
 	} catch (Exception e) {
@@ -81,12 +92,12 @@ public class Md5Checksum {
      * @return the checksum as string
      */
     public String getMd5Checksum(File file) {
-	byte[] b = createChecksum(file);
-	String result = "";
-
-	for (int i = 0; i < b.length; i++) {
-	    result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
-	}
+	ChecksumCache cache = ChecksumCache.getDefault();
+	String result = cache.get(file);
+	if (result != null)
+	    return result;
+	result = Md5Sidecar.hex(createChecksum(file));
+	cache.put(file, result);
 	return result;
     }
 
@@ -96,12 +107,38 @@ public class Md5Checksum {
      * @return the checksum as string
      */
     public String getMd5Checksum(InputStream in) {
-	byte[] b = createChecksum(in);
-	String result = "";
+	return Md5Sidecar.hex(createChecksum(in));
+    }
 
-	for (int i = 0; i < b.length; i++) {
-	    result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+    /**
+     * Hashes many files at once. A single file can not be hashed in
+     * parallel, so this pays off for many files on storage that serves
+     * parallel reads faster than one.
+     * 
+     * @param files
+     *            the files you want to get the checksums from
+     * @param threads
+     *            the number of files hashed at the same time
+     * @return the checksum of each file in the order of the files
+     */
+    public Map<File, String> getMd5Checksums(Collection<File> files,
+	    int threads) {
+	ExecutorService executor = Executors.newFixedThreadPool(Math.max(1,
+		Math.min(threads, files.size())));
+	try {
+	    Map<File, CompletableFuture<String>> futures = new LinkedHashMap<File, CompletableFuture<String>>();
+	    for (File file : files) {
+		futures.put(file, CompletableFuture.supplyAsync(
+			() -> getMd5Checksum(file), executor));
+	    }
+	    Map<File, String> result = new LinkedHashMap<File, String>();
+	    for (Map.Entry<File, CompletableFuture<String>> e : futures
+		    .entrySet()) {
+		result.put(e.getKey(), e.getValue().join());
+	    }
+	    return result;
+	} finally {
+	    executor.shutdownNow();
 	}
-	return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.ObjectType;
+
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * AsyncWebclient runs the calls of a Webclient on a bounded pool of threads
+ * and returns a CompletableFuture for each of them. Calls that don't depend on
+ * each other, e.g. the upload of the data and the update of the label of a
+ * new object, can so be sent at the same time. A failed call completes its
+ * future exceptionally. Calls started inside Webclient.batch are collected
+ * into the batch of the calling thread.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class AsyncWebclient implements Closeable {
+
+    private final Webclient webclient;
+    private final ExecutorService executor;
+
+    /**
+     * @param webclient
+     *            the calls are passed to this webclient
+     * @param threads
+     *            maximum number of calls running at the same time. Should not
+     *            be larger than the connection pool of the webclient.
+     */
+    public AsyncWebclient(Webclient webclient, int threads) {
+	this.webclient = webclient;
+	AtomicInteger count = new AtomicInteger();
+	this.executor = Executors.newFixedThreadPool(Math.max(1, threads),
+		r -> {
+		    Thread t = new Thread(r, "webclient-"
+			    + count.getAndIncrement());
+		    t.setDaemon(true);
+		    return t;
+		});
+    }
+
+    /**
+     * @return the webclient the calls are passed to
+     */
+    public Webclient getWebclient() {
+	return webclient;
+    }
+
+    /**
+     * Creates the resource and afterwards uploads the data and updates the
+     * label at the same time.
+     * 
+     * @param dtlBean
+     *            A DigitalEntity to operate on.
+     * @param type
+     *            The Object type
+     * @return completes when the data and the label have been updated
+     */
+    public CompletableFuture<Void> createObject(DigitalEntity dtlBean,
+	    ObjectType type) {
+	String resource = webclient.endpoint + "/resource/"
+		+ webclient.namespace + ":" + dtlBean.getPid();
+	return createResource(type, dtlBean).thenCompose(
+		v -> CompletableFuture.allOf(
+			run(() -> webclient.updateData(dtlBean)),
+			run(() -> webclient.updateLabel(resource, dtlBean))));
+    }
+
+    /**
+     * @param type
+     *            The ObjectType .
+     * @param dtlBean
+     *            The DigitalEntity to operate on
+     * @return completes when the resource has been created
+     */
+    public CompletableFuture<Void> createResource(ObjectType type,
+	    DigitalEntity dtlBean) {
+	return run(() -> webclient.createResource(type, dtlBean));
+    }
+
+    /**
+     * @param pid
+     *            the namespace qualified pid
+     * @param data
+     *            data to upload
+     * @param mimeType
+     *            mimetype of data
+     * @return completes when the data has been uploaded
+     */
+    public CompletableFuture<Void> updateData(String pid, File data,
+	    String mimeType) {
+	return run(() -> webclient.updateData(pid, data, mimeType));
+    }
+
+    /**
+     * @param dtlBean
+     *            The bean for the object
+     * @param metadata
+     *            The metadata
+     * @return completes when the metadata has been set
+     */
+    public CompletableFuture<Void> setMetadata(DigitalEntity dtlBean,
+	    String metadata) {
+	return run(() -> webclient.setMetadata(dtlBean, metadata));
+    }
+
+    /**
+     * @param dtlBean
+     *            A DigitalEntity to operate on
+     * @return completes when identifiers and catalog data have been added
+     */
+    public CompletableFuture<Void> autoGenerateMetdata(DigitalEntity dtlBean) {
+	return run(() -> webclient.autoGenerateMetdata(dtlBean));
+    }
+
+    /**
+     * @param pid
+     *            a namespace qualified pid
+     * @return completes when the lobid data has been fetched
+     */
+    public CompletableFuture<Void> lobidify(String pid) {
+	return run(() -> webclient.lobidify(pid));
+    }
+
+    /**
+     * @param pid
+     *            a namespace qualified pid
+     * @return completes when the oai sets have been created
+     */
+    public CompletableFuture<Void> makeOaiSet(String pid) {
+	return run(() -> webclient.makeOaiSet(pid));
+    }
+
+    /**
+     * @param id
+     *            pid without namespace
+     * @param ns
+     *            namespace of the pid
+     * @param snid
+     *            urn subnamespace id
+     * @return completes when the urn has been added
+     */
+    public CompletableFuture<Void> addUrn(String id, String ns, String snid) {
+	return run(() -> webclient.addUrn(id, ns, snid));
+    }
+
+    /**
+     * @param pid
+     *            a namespace qualified pid
+     * @return json representation of resource
+     */
+    public CompletableFuture<String> readResource(String pid) {
+	return CompletableFuture.supplyAsync(() -> webclient.readResource(pid),
+		webclient.inBatch(executor));
+    }
+
+    /**
+     * @param pid
+     *            a pid with namespace
+     * @return completes when the object has been purged
+     */
+    public CompletableFuture<Void> purge(String pid) {
+	return run(() -> {
+	    try {
+		webclient.purge(pid);
+	    } catch (Exception e) {
+		throw new AsyncWebclientException(pid + " Can't purge!", e);
+	    }
+	});
+    }
+
+    /**
+     * @param pid
+     *            a pid with namespace
+     * @return completes when the object has been deleted
+     */
+    public CompletableFuture<Void> delete(String pid) {
+	return run(() -> {
+	    try {
+		webclient.delete(pid);
+	    } catch (Exception e) {
+		throw new AsyncWebclientException(pid + " Can't delete!", e);
+	    }
+	});
+    }
+
+    private CompletableFuture<Void> run(Runnable call) {
+	return CompletableFuture.runAsync(call, webclient.inBatch(executor));
+    }
+
+    /**
+     * Running calls are finished, no new calls are accepted.
+     */
+    @Override
+    public void close() {
+	executor.shutdown();
+    }
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class AsyncWebclientException extends RuntimeException {
+	public AsyncWebclientException(String message, Throwable cause) {
+	    super(message, cause);
+	}
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of concurrent calls to the api and adapts the limit to
+ * the observed latency (AIMD). After every window of calls the limit is
+ * raised by one, if the calls have used the whole limit and the 99th
+ * percentile of their latency stayed within twice the lowest one seen so far.
+ * If the latency is higher or more than 5% of the calls failed, the limit is
+ * cut by a quarter. The limit thereby settles near the number of calls the
+ * api can handle without queueing them.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class ConcurrencyLimit {
+
+    final static Logger logger = LoggerFactory
+	    .getLogger(ConcurrencyLimit.class);
+
+    private static final int WINDOW = 50;
+    private static final double TOLERANCE = 2.0;
+    private static final double BACKOFF = 0.75;
+    private static final double ERROR_RATE = 0.05;
+
+    private final String name;
+    private final int max;
+    private double limit;
+    private int inFlight = 0;
+    private boolean saturated = false;
+
+    private final long[] latencies = new long[WINDOW];
+    private int samples = 0;
+    private int calls = 0;
+    private int errors = 0;
+    private long baseline = 0;
+    private long p99 = 0;
+
+    /**
+     * @param name
+     *            name of the limit, used in the log and the metrics
+     * @param initial
+     *            initial number of concurrent calls
+     * @param max
+     *            the limit is never raised above max
+     */
+    public ConcurrencyLimit(String name, int initial, int max) {
+	this.name = name;
+	this.max = Math.max(1, max);
+	this.limit = Math.min(this.max, Math.max(1, initial));
+    }
+
+    /**
+     * Waits until the number of calls in flight is below the limit
+     * 
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+	while (inFlight >= (int) limit) {
+	    wait();
+	}
+	inFlight++;
+	if (inFlight >= (int) limit)
+	    saturated = true;
+    }
+
+    /**
+     * Must be called once after each acquire, when the call has returned
+     * 
+     * @param latency
+     *            latency of the call in ms
+     * @param success
+     *            false if the call failed with a timeout or a status that
+     *            signals an overloaded api, e.g. 503
+     * @param sample
+     *            false if the latency does not tell about the load of the
+     *            api, e.g. for an upload
+     */
+    public synchronized void release(long latency, boolean success,
+	    boolean sample) {
+	inFlight--;
+	calls++;
+	if (!success)
+	    errors++;
+	else if (sample)
+	    latencies[samples++] = latency;
+	if (calls >= WINDOW || samples == WINDOW)
+	    adjust();
+	notifyAll();
+    }
+
+    private void adjust() {
+	long[] window = Arrays.copyOf(latencies, samples);
+	Arrays.sort(window);
+	long windowP99 = samples == 0 ? 0 : window[(samples - 1) * 99 / 100];
+	int old = (int) limit;
+	if (errors > ERROR_RATE * calls
+		|| (baseline > 0 && windowP99 > TOLERANCE * baseline)) {
+	    limit = Math.max(1, limit * BACKOFF);
+	} else if (saturated) {
+	    limit = Math.min(max, limit + 1);
+	}
+	if (samples > 0) {
+	    // follows a slower api slowly, so the limit does not stay low
+	    // forever after the api has become slower for good
+	    baseline = baseline == 0 || windowP99 < baseline ? windowP99
+		    : baseline + (windowP99 - baseline) / 20;
+	    p99 = windowP99;
+	}
+	if ((int) limit != old) {
+	    logger.info(name + ": limit " + old + " -> " + (int) limit
+		    + ", p99 " + windowP99 + " ms, baseline " + baseline
+		    + " ms, " + errors + " of " + calls + " calls failed");
+	}
+	samples = 0;
+	calls = 0;
+	errors = 0;
+	saturated = false;
+    }
+
+    /**
+     * @return current number of concurrent calls allowed
+     */
+    public synchronized int getLimit() {
+	return (int) limit;
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public synchronized int getInFlight() {
+	return inFlight;
+    }
+
+    @Override
+    public synchronized String toString() {
+	return name + ": limit " + (int) limit + ", in flight " + inFlight
+		+ ", p99 " + p99 + " ms";
+    }
+}
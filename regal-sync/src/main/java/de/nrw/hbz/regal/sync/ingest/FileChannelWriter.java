@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Writes a File entity, e.g. the data of a FileDataBodyPart, with
+ * FileChannel.transferTo. The entity stream of Jersey is no file or socket
+ * channel, so the JDK can not copy without user space here: it reads the
+ * file through a small buffer of its own and writes it to the stream.
+ * Neither the whole file nor a large part of it is ever held in the heap.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+@Provider
+public class FileChannelWriter implements MessageBodyWriter<File> {
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType,
+	    Annotation[] annotations, MediaType mediaType) {
+	return File.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(File file, Class<?> type, Type genericType,
+	    Annotation[] annotations, MediaType mediaType) {
+	return file.length();
+    }
+
+    @Override
+    public void writeTo(File file, Class<?> type, Type genericType,
+	    Annotation[] annotations, MediaType mediaType,
+	    MultivaluedMap<String, Object> httpHeaders, OutputStream out)
+	    throws IOException {
+	try (FileChannel channel = FileChannel.open(file.toPath(),
+		StandardOpenOption.READ)) {
+	    // must not be closed, it would close the entity stream
+	    WritableByteChannel target = Channels.newChannel(out);
+	    long size = channel.size();
+	    long position = 0;
+	    while (position < size) {
+		position += channel.transferTo(position, size - position,
+			target);
+	    }
+	}
+    }
+}
@@ -65,6 +65,29 @@ public interface IngestInterface {
     public abstract void init(String host, String user, String password,
 	    String ns, KeystoreConf keystore);
 
+    /**
+     * 
+     * @param host
+     *            the host of the webapi
+     * @param user
+     *            a valid user
+     * @param password
+     *            the users password
+     * @param ns
+     *            the namespace to operate on
+     * @param keystore
+     *            if keystore is not null, the connection will use a secured
+     *            channel
+     * @param webclient
+     *            connection pool and timeouts of the connection to the webapi.
+     *            Ingesters that don't use a Webclient ignore it.
+     * 
+     */
+    default public void init(String host, String user, String password,
+	    String ns, KeystoreConf keystore, WebclientConf webclient) {
+	init(host, user, password, ns, keystore);
+    }
+
     /**
      * Gives the ingester a chance to test a newly created version
      */
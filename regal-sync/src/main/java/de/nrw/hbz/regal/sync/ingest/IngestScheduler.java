@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * The IngestScheduler turns a tree of DigitalEntities into a graph of ingest
+ * tasks. For every entity the resource is created first. Afterwards its data
+ * and its metadata are updated, and the parts of the entity are created. The
+ * oai sets are made after the metadata. Every task starts as soon as the
+ * tasks it depends on have finished, so siblings and the steps of different
+ * entities run at the same time.
+ * 
+ * A failed task is logged. The tasks depending on it are skipped, all other
+ * tasks are run.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class IngestScheduler {
+
+    final static Logger logger = LoggerFactory.getLogger(IngestScheduler.class);
+
+    private final ExecutorService pool;
+    private final Executor executor;
+
+    /**
+     * @param threads
+     *            number of threads shared by all runs of the scheduler. With 0
+     *            threads every task is run by the thread calling run.
+     */
+    public IngestScheduler(int threads) {
+	if (threads > 0) {
+	    AtomicInteger count = new AtomicInteger();
+	    pool = Executors.newFixedThreadPool(threads, r -> {
+		Thread t = new Thread(r, "ingest-scheduler-"
+			+ count.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	    });
+	    executor = pool;
+	} else {
+	    pool = null;
+	    executor = Runnable::run;
+	}
+    }
+
+    /**
+     * Ingests the entity and all parts returned by the steps and returns when
+     * all tasks have finished.
+     * 
+     * @param root
+     *            the entity to ingest
+     * @param steps
+     *            the steps to ingest the entity and its parts
+     * @return the failed tasks as "pid step", empty if all tasks succeeded
+     */
+    public List<String> run(DigitalEntity root, IngestSteps steps) {
+	return run(root, steps, UnaryOperator.identity());
+    }
+
+    /**
+     * Like run(root, steps), but the tasks are handed to the executor
+     * returned by bind, e.g. one that runs them in a batch of the calling
+     * thread.
+     * 
+     * @param root
+     *            the entity to ingest
+     * @param steps
+     *            the steps to ingest the entity and its parts
+     * @param bind
+     *            wraps the executor of the scheduler for this run
+     * @return the failed tasks as "pid step", empty if all tasks succeeded
+     */
+    public List<String> run(DigitalEntity root, IngestSteps steps,
+	    UnaryOperator<Executor> bind) {
+	List<String> failed = new Vector<String>();
+	Executor exec = bind.apply(executor);
+	try {
+	    schedule(root, CompletableFuture.completedFuture(null), steps,
+		    failed, exec).join();
+	} catch (CompletionException e) {
+	    // already logged by the failed task
+	}
+	return failed;
+    }
+
+    private CompletableFuture<Void> schedule(DigitalEntity entity,
+	    CompletableFuture<?> parent, IngestSteps steps, List<String> failed,
+	    Executor exec) {
+	List<DigitalEntity> parts = Collections
+		.synchronizedList(new ArrayList<DigitalEntity>());
+	CompletableFuture<Void> create = task(parent, entity, "create",
+		e -> parts.addAll(steps.create(e)), failed, exec);
+	CompletableFuture<Void> data = task(create, entity, "data",
+		steps::updateData, failed, exec);
+	CompletableFuture<Void> metadata = task(create, entity, "metadata",
+		steps::updateMetadata, failed, exec);
+	CompletableFuture<Void> oaiSet = task(metadata, entity, "oaiset",
+		steps::makeOaiSet, failed, exec);
+	CompletableFuture<Void> children = create.thenComposeAsync(
+		v -> CompletableFuture.allOf(parts.stream()
+			.map(p -> schedule(p, create, steps, failed, exec))
+			.toArray(CompletableFuture[]::new)), exec);
+	return CompletableFuture.allOf(data, oaiSet, children);
+    }
+
+    private CompletableFuture<Void> task(CompletableFuture<?> after,
+	    DigitalEntity entity, String step, Consumer<DigitalEntity> action,
+	    List<String> failed, Executor exec) {
+	return after.thenRunAsync(() -> {
+	    try {
+		action.accept(entity);
+	    } catch (RuntimeException e) {
+		failed.add(entity.getPid() + " " + step);
+		logger.error(entity.getPid() + " " + step + " failed: "
+			+ e.getMessage(), e);
+		throw e;
+	    }
+	}, exec);
+    }
+
+    /**
+     * Running tasks are finished, no new runs are accepted.
+     */
+    public void shutdown() {
+	if (pool != null) {
+	    pool.shutdown();
+	}
+    }
+}
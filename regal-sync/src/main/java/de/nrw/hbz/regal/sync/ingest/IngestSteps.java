@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.List;
+
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * The steps to ingest one DigitalEntity. The IngestScheduler runs them in the
+ * order create &rarr; data and create &rarr; metadata &rarr; oaisets, and
+ * creates the parts returned by create after their parent.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public interface IngestSteps {
+
+    /**
+     * Creates the resource of the entity. Runs after the parent of the entity
+     * has been created.
+     * 
+     * @param entity
+     *            the entity to create
+     * @return the parts of the entity, they are created after the entity
+     */
+    List<DigitalEntity> create(DigitalEntity entity);
+
+    /**
+     * Uploads the data of the entity. Runs after create.
+     * 
+     * @param entity
+     *            the entity to update
+     */
+    default void updateData(DigitalEntity entity) {
+    }
+
+    /**
+     * Updates the metadata of the entity. Runs after create.
+     * 
+     * @param entity
+     *            the entity to update
+     */
+    default void updateMetadata(DigitalEntity entity) {
+    }
+
+    /**
+     * Adds the entity to the oai sets. Runs after updateMetadata.
+     * 
+     * @param entity
+     *            the entity to update
+     */
+    default void makeOaiSet(DigitalEntity entity) {
+    }
+}
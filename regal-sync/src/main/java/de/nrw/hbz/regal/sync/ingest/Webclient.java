@@ -18,11 +18,24 @@ package de.nrw.hbz.regal.sync.ingest;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Vector;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 import javax.ws.rs.core.MediaType;
 
@@ -30,19 +43,33 @@ import models.DublinCoreData;
 import models.ObjectType;
 import models.RegalObject;
 
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnectionManager;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sun.jersey.api.client.AsyncWebResource;
 import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.config.ClientConfig;
-import com.sun.jersey.api.client.config.DefaultClientConfig;
+import com.sun.jersey.api.client.filter.ClientFilter;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.client.apache.ApacheHttpClient;
+import com.sun.jersey.client.apache.ApacheHttpClientHandler;
 import com.sun.jersey.client.apache.config.DefaultApacheHttpClientConfig;
-import com.sun.jersey.client.urlconnection.HTTPSProperties;
+import com.sun.jersey.multipart.Boundary;
 import com.sun.jersey.multipart.FormDataMultiPart;
+import com.sun.jersey.multipart.MultiPart;
 import com.sun.jersey.multipart.file.FileDataBodyPart;
 import com.sun.jersey.multipart.impl.MultiPartWriter;
 
@@ -64,6 +91,17 @@ public class Webclient {
     String endpoint = null;
     String host = null;
     Client webclient = null;
+    private final ThreadLocal<WebclientBatch> batch = new ThreadLocal<WebclientBatch>();
+    private boolean bulk = false;
+    private volatile boolean bulkAvailable = false;
+    private int batchSize = 100;
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class BulkException extends RuntimeException {
+	public BulkException(String message) {
+	    super(message);
+	}
+    }
 
     /**
      * @param namespace
@@ -80,19 +118,48 @@ public class Webclient {
      */
     public Webclient(String namespace, String user, String password,
 	    String host, KeystoreConf kconf) {
+	this(namespace, user, password, host, kconf, new WebclientConf());
+    }
+
+    /**
+     * @param namespace
+     *            The namespace is used to prefix pids for resources
+     * @param user
+     *            a valid user to authenticate to the webapi
+     * @param password
+     *            a password for the webapi
+     * @param host
+     *            the host of the api.
+     * @param kconf
+     *            config for keystore, if null the client will go against
+     *            unsecured http
+     * @param wconf
+     *            size of the connection pool, timeouts and chunk size
+     */
+    public Webclient(String namespace, String user, String password,
+	    String host, KeystoreConf kconf, WebclientConf wconf) {
 	this.host = host;
 	this.namespace = namespace;
-	ClientConfig cc = new DefaultClientConfig();
+	this.bulk = wconf.bulk;
+	this.bulkAvailable = wconf.bulk;
+	this.batchSize = wconf.batchSize;
+	DefaultApacheHttpClientConfig cc = new DefaultApacheHttpClientConfig();
 	cc.getClasses().add(MultiPartWriter.class);
+	cc.getClasses().add(FileChannelWriter.class);
 	cc.getClasses().add(FormDataMultiPart.class);
 	cc.getProperties().put(ClientConfig.PROPERTY_FOLLOW_REDIRECTS, true);
 	cc.getFeatures().put(ClientConfig.FEATURE_DISABLE_XML_SECURITY, true);
 	cc.getProperties().put(
 		DefaultApacheHttpClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE,
-		1024);
+		wconf.chunkSize);
+	cc.getProperties().put(ClientConfig.PROPERTY_CONNECT_TIMEOUT,
+		wconf.connectTimeout);
+	cc.getProperties().put(ClientConfig.PROPERTY_READ_TIMEOUT,
+		wconf.readTimeout);
 	if (kconf != null && kconf.location != null && kconf.password != null) {
-	    cc.getProperties().put(HTTPSProperties.PROPERTY_HTTPS_PROPERTIES,
-		    new HTTPSProperties(null, initSsl(cc, kconf)));
+	    Protocol.registerProtocol("https", new Protocol("https",
+		    (ProtocolSocketFactory) new SslSocketFactory(initSsl(kconf)),
+		    443));
 	    endpoint = "https://" + host;
 
 	    System.out.println("Connect via https");
@@ -100,11 +167,179 @@ public class Webclient {
 	    System.out.println("Connect via http");
 	    endpoint = "http://" + host;
 	}
-	webclient = Client.create(cc);
+	webclient = new ApacheHttpClient(new ApacheHttpClientHandler(
+		new HttpClient(connectionManager(wconf)), cc));
 	webclient.addFilter(new HTTPBasicAuthFilter(user, password));
+	if (wconf.concurrencyLimit != null) {
+	    webclient.addFilter(new LimitFilter(wconf.concurrencyLimit));
+	}
+	webclient.addFilter(new RateFilter(wconf.rateLimits));
+	webclient.addFilter(new RetryFilter(wconf.retryPolicy));
+    }
+
+    /**
+     * Waits for the RateLimits of the api host before each attempt of a
+     * request, without holding a permit of the ConcurrencyLimit meanwhile.
+     */
+    private static class RateFilter extends ClientFilter {
+	private final RateLimits limits;
+
+	RateFilter(RateLimits limits) {
+	    this.limits = limits;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request)
+		throws ClientHandlerException {
+	    try {
+		limits.acquire(request.getURI().getHost());
+	    } catch (InterruptedIOException e) {
+		throw new ClientHandlerException(e);
+	    }
+	    return getNext().handle(request);
+	}
+    }
+
+    /**
+     * Holds a permit of the ConcurrencyLimit while a request is in flight.
+     * Uploads count against the limit, but their latency depends on the size
+     * of the data and is not sampled.
+     */
+    private static class LimitFilter extends ClientFilter {
+	private final ConcurrencyLimit limit;
+
+	LimitFilter(ConcurrencyLimit limit) {
+	    this.limit = limit;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request)
+		throws ClientHandlerException {
+	    try {
+		limit.acquire();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new ClientHandlerException(e);
+	    }
+	    long start = System.currentTimeMillis();
+	    boolean success = false;
+	    try {
+		ClientResponse response = getNext().handle(request);
+		int status = response.getStatus();
+		success = status != 429 && status < 500;
+		return response;
+	    } finally {
+		limit.release(System.currentTimeMillis() - start, success,
+			!(request.getEntity() instanceof MultiPart));
+	    }
+	}
+    }
+
+    /**
+     * Retries GET, PUT, DELETE and HEAD requests that fail with a lost
+     * connection, a timeout or a 408, 429, 502, 503 or 504. Other requests are
+     * not retried, but pause as well while the circuit is open.
+     */
+    private static class RetryFilter extends ClientFilter {
+	private static final Set<String> IDEMPOTENT = new HashSet<String>(
+		Arrays.asList("GET", "PUT", "DELETE", "HEAD"));
+	private final RetryPolicy policy;
+
+	RetryFilter(RetryPolicy policy) {
+	    this.policy = policy;
+	}
+
+	@Override
+	public ClientResponse handle(ClientRequest request)
+		throws ClientHandlerException {
+	    String call = request.getMethod() + " " + request.getURI();
+	    boolean idempotent = IDEMPOTENT.contains(request.getMethod());
+	    for (int attempt = 1;; attempt++) {
+		policy.await();
+		ClientResponse response;
+		try {
+		    response = getNext().handle(request);
+		} catch (ClientHandlerException e) {
+		    policy.record(false);
+		    if (!idempotent
+			    || !policy.retry(attempt, call + " " + e))
+			throw e;
+		    continue;
+		}
+		int status = response.getStatus();
+		boolean temporary = status == 408 || status == 429
+			|| status == 502 || status == 503 || status == 504;
+		policy.record(!temporary);
+		if (!temporary || !idempotent
+			|| !policy.retry(attempt, call + " " + status))
+		    return response;
+		response.close();
+	    }
+	}
     }
 
-    private SSLContext initSsl(ClientConfig cc, KeystoreConf kconf) {
+    /*
+     * The ingest threads share the pooled connections. Each of them can
+     * upload at the same time as long as maxConnectionsPerHost is not smaller
+     * than the number of ingest threads.
+     */
+    private HttpConnectionManager connectionManager(WebclientConf wconf) {
+	MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+	HttpConnectionManagerParams params = manager.getParams();
+	params.setDefaultMaxConnectionsPerHost(wconf.maxConnectionsPerHost);
+	params.setMaxTotalConnections(Math.max(wconf.maxConnections,
+		wconf.maxConnectionsPerHost));
+	params.setConnectionTimeout(wconf.connectTimeout);
+	params.setSoTimeout(wconf.readTimeout);
+	params.setStaleCheckingEnabled(true);
+	return manager;
+    }
+
+    /**
+     * Opens the https connections of the connection pool with the keystore
+     * given to the Webclient
+     */
+    private static class SslSocketFactory implements
+	    SecureProtocolSocketFactory {
+	private final SSLSocketFactory factory;
+
+	SslSocketFactory(SSLContext ctx) {
+	    this.factory = ctx.getSocketFactory();
+	}
+
+	@Override
+	public Socket createSocket(String host, int port,
+		InetAddress localAddress, int localPort) throws IOException {
+	    return factory.createSocket(host, port, localAddress, localPort);
+	}
+
+	@Override
+	public Socket createSocket(String host, int port,
+		InetAddress localAddress, int localPort,
+		HttpConnectionParams params) throws IOException {
+	    int timeout = params.getConnectionTimeout();
+	    if (timeout == 0) {
+		return createSocket(host, port, localAddress, localPort);
+	    }
+	    Socket socket = factory.createSocket();
+	    socket.bind(new InetSocketAddress(localAddress, localPort));
+	    socket.connect(new InetSocketAddress(host, port), timeout);
+	    return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+	    return factory.createSocket(host, port);
+	}
+
+	@Override
+	public Socket createSocket(Socket socket, String host, int port,
+		boolean autoClose) throws IOException {
+	    return factory.createSocket(socket, host, port, autoClose);
+	}
+    }
+
+    private SSLContext initSsl(KeystoreConf kconf) {
 	try (FileInputStream fis = new FileInputStream(kconf.location)) {
 	    SSLContext ctx = SSLContext.getInstance("SSL");
 	    KeyStore trustStore;
@@ -121,6 +356,161 @@ public class Webclient {
 	}
     }
 
+    /**
+     * Runs the work and collects the write calls the current thread makes to
+     * the api meanwhile. They are sent afterwards in bulk requests. Any other
+     * call, e.g. a read or a data upload, sends the collected calls first.
+     * Calls made by other threads are only collected if they run on an
+     * executor returned by inBatch. Without bulk mode the work is run as
+     * usual.
+     * 
+     * @param work
+     *            the calls to collect
+     * @return the result of the work
+     * @throws WebclientBatch.BatchException
+     *             if a collected call has failed
+     */
+    public <T> T batch(Supplier<T> work) {
+	if (!bulk || batch.get() != null) {
+	    return work.get();
+	}
+	WebclientBatch b = new WebclientBatch(this, batchSize);
+	batch.set(b);
+	T result;
+	try {
+	    result = work.get();
+	} catch (RuntimeException | Error e) {
+	    batch.remove();
+	    try {
+		b.flush();
+	    } catch (RuntimeException f) {
+		e.addSuppressed(f);
+	    }
+	    throw e;
+	}
+	batch.remove();
+	b.flush();
+	return result;
+    }
+
+    /**
+     * Ingests an entity tree with the scheduler in one batch. The tasks run
+     * on the threads of the scheduler, but collect their calls into the
+     * batch of the calling thread.
+     * 
+     * @param scheduler
+     *            the scheduler to run the steps
+     * @param root
+     *            the entity to ingest
+     * @param steps
+     *            the steps to ingest the entity and its parts
+     * @return the failed tasks as "pid step" and the failed calls of the
+     *         batch as "method url", empty if everything succeeded
+     */
+    public List<String> batch(IngestScheduler scheduler, DigitalEntity root,
+	    IngestSteps steps) {
+	List<String> failed = new Vector<String>();
+	try {
+	    batch(() -> failed.addAll(scheduler.run(root, steps,
+		    this::inBatch)));
+	} catch (WebclientBatch.BatchException e) {
+	    for (WebclientBatch.Operation op : e.getFailed()) {
+		failed.add(op.toString());
+	    }
+	}
+	return failed;
+    }
+
+    /**
+     * @param executor
+     *            an executor
+     * @return an executor that runs its tasks in the batch of the calling
+     *         thread, or the executor itself if the thread has no batch
+     */
+    public Executor inBatch(Executor executor) {
+	WebclientBatch b = batch.get();
+	if (b == null) {
+	    return executor;
+	}
+	return task -> executor.execute(() -> {
+	    WebclientBatch outer = batch.get();
+	    batch.set(b);
+	    try {
+		task.run();
+	    } finally {
+		if (outer == null) {
+		    batch.remove();
+		} else {
+		    batch.set(outer);
+		}
+	    }
+	});
+    }
+
+    private void flushBatch() {
+	WebclientBatch b = batch.get();
+	if (b != null) {
+	    b.flush();
+	}
+    }
+
+    private WebResource resource(String url) {
+	flushBatch();
+	return webclient.resource(url);
+    }
+
+    private AsyncWebResource asyncResource(String url) {
+	flushBatch();
+	return webclient.asyncResource(url);
+    }
+
+    private void write(String method, String url, String contentType,
+	    String body) {
+	WebclientBatch b = batch.get();
+	if (b != null) {
+	    b.add(method, url, contentType, body);
+	} else {
+	    send(new WebclientBatch.Operation(method, url, contentType, body));
+	}
+    }
+
+    void send(WebclientBatch.Operation op) {
+	WebResource.Builder request = webclient.resource(op.url)
+		.getRequestBuilder();
+	if (op.contentType != null) {
+	    request = request.type(op.contentType);
+	}
+	if (op.body == null) {
+	    request.method(op.method);
+	} else {
+	    request.method(op.method, op.body);
+	}
+    }
+
+    /*
+     * Without a bulk endpoint the api answers 404, 405 or 501. The Webclient
+     * then stays in per call mode.
+     */
+    void sendBulk(List<WebclientBatch.Operation> operations) {
+	ClientResponse response = webclient.resource(endpoint + "/bulk")
+		.type("application/json").post(ClientResponse.class,
+			WebclientBatch.toJson(operations, endpoint));
+	int status = response.getStatus();
+	response.close();
+	if (status == 404 || status == 405 || status == 501) {
+	    bulkAvailable = false;
+	    throw new BulkException("No bulk endpoint: " + status);
+	}
+	if (status >= 300) {
+	    throw new BulkException("Bulk request failed: " + status);
+	}
+	logger.debug("Sent " + operations.size() + " calls in bulk");
+    }
+
+    boolean isBulkAvailable() {
+	return bulkAvailable;
+    }
+
     /**
      * Metadata performs typical metadata related api-actions like update the dc
      * stream enrich with catalogdata. Add the object to the searchindex and
@@ -163,7 +553,9 @@ public class Webclient {
     /**
      * Metadata performs typical metadata related api-actions like update the dc
      * stream enrich with catalogdata. Add the object to the searchindex and
-     * provide it on the oai interface.
+     * provide it on the oai interface. The catalogdata and the passed metadata
+     * are merged locally and written with a single PUT. If no catalogdata can
+     * be found, the passed metadata replaces the metadata of the object.
      * 
      * @param dtlBean
      *            A DigitalEntity to operate on
@@ -171,26 +563,42 @@ public class Webclient {
      *            n-triple metadata to integrate
      */
     public void autoGenerateMetadataMerge(DigitalEntity dtlBean, String metadata) {
-	setMetadata(dtlBean, "");
-	autoGenerateMetdata(dtlBean);
 	String pid = namespace + ":" + dtlBean.getPid();
 	String resource = endpoint + "/resource/" + pid;
 	String m = "";
 	try {
-	    logger.debug("Metadata: " + metadata);
-	    m = readMetadata(resource + "/metadata", dtlBean);
+	    setIdentifier(dtlBean);
+	    if (lobidifyNow(pid)) {
+		m = readMetadata(resource + "/metadata", dtlBean);
+	    }
 	} catch (Exception e) {
 	    logger.error(dtlBean.getPid() + " " + e.getMessage(), e);
 	}
 	try {
-	    String merge = appendMetadata(m, metadata);
-	    logger.debug("MERGE: " + metadata);
+	    logger.debug("Metadata: " + metadata);
+	    String merge = mergeMetadata(m, metadata);
+	    logger.debug("MERGE: " + merge);
 	    updateMetadata(resource + "/metadata", merge, "text/plain");
 	} catch (Exception e) {
 	    logger.error(dtlBean.getPid() + " " + e.getMessage(), e);
 	}
     }
 
+    /*
+     * Unlike lobidify this is never collected by a batch, the caller must know
+     * if there is catalogdata to merge.
+     */
+    private boolean lobidifyNow(String pid) {
+	try {
+	    resource(endpoint + "/utils/lobidify/" + pid).type("text/plain")
+		    .post();
+	    return true;
+	} catch (UniformInterfaceException e) {
+	    logger.warn(pid + " fetching lobid-data failed", e);
+	    return false;
+	}
+    }
+
     /**
      * Sets the metadata to a resource represented by the passed DigitalEntity.
      * 
@@ -209,8 +617,25 @@ public class Webclient {
 	}
     }
 
-    private String appendMetadata(String m, String metadata) {
-	return m + "\n" + metadata;
+    /*
+     * N-Triples hold one statement per line. Statements that are in both
+     * graphs, e.g. of an earlier run, are written once.
+     */
+    static String mergeMetadata(String m, String metadata) {
+	Set<String> statements = new LinkedHashSet<String>();
+	for (String graph : new String[] { m, metadata }) {
+	    if (graph == null)
+		continue;
+	    for (String line : graph.split("\r?\n")) {
+		if (!line.trim().isEmpty())
+		    statements.add(line.trim());
+	    }
+	}
+	StringBuilder merge = new StringBuilder();
+	for (String statement : statements) {
+	    merge.append(statement).append("\n");
+	}
+	return merge.toString();
     }
 
     /**
@@ -288,26 +713,24 @@ public class Webclient {
      */
     public void createResource(RegalObject input, String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid;
-	WebResource resource = webclient.resource(resourceUrl);
 	try {
 	    logger.info("curl -XPUT -uedoweb-admin:admin -d'" + input + "' "
-		    + resource);
-	    resource.type("application/json").put(input.toString());
+		    + resourceUrl);
+	    write("PUT", resourceUrl, "application/json", input.toString());
 	} catch (Exception e) {
 	    logger.info(pid + " " + e.getMessage(), e);
 	}
     }
 
     private String readMetadata(String url, DigitalEntity dtlBean) {
-	WebResource metadataRes = webclient.resource(url);
+	WebResource metadataRes = resource(url);
 	return metadataRes.get(String.class);
     }
 
     private void updateMetadata(String url, String metadata,
 	    String contentType, String charset) {
-	WebResource metadataRes = webclient.resource(url);
 	logger.debug("PUT metadata to " + url);
-	metadataRes.type(contentType + ";charset=" + charset).put(metadata);
+	write("PUT", url, contentType + ";charset=" + charset, metadata);
     }
 
     private void updateMetadata(String url, String metadata, String contentType) {
@@ -315,19 +738,27 @@ public class Webclient {
     }
 
     private void updateDc(String url, DublinCoreData dc) {
-	String response = "";
 	try {
-	    WebResource resource = webclient.resource(url);
-	    logger.info("curl -XPUT -uedoweb-admin:admin " + resource + " -d'"
+	    logger.info("curl -XPUT -uedoweb-admin:admin " + url + " -d'"
 		    + dc.toString() + "'");
-	    response = resource.type("application/json").put(String.class,
-		    dc.toString());
+	    write("PUT", url, "application/json", dc.toString());
 	} catch (Exception e) {
-	    logger.info(response, e);
+	    logger.info(url, e);
 	}
     }
 
-    private void updateLabel(String url, DigitalEntity dtlBean) {
+    /**
+     * Sets the label of the resource represented by the DigitalEntity
+     * 
+     * @param dtlBean
+     *            the DigitalEntity to operate on
+     */
+    public void updateLabel(DigitalEntity dtlBean) {
+	String pid = namespace + ":" + dtlBean.getPid();
+	updateLabel(endpoint + "/resource/" + pid, dtlBean);
+    }
+
+    void updateLabel(String url, DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	DublinCoreData dc = new DublinCoreData();
 	dc.addTitle("Version of: " + pid);
@@ -335,7 +766,13 @@ public class Webclient {
 	updateDc(url + "/dc", dc);
     }
 
-    private void updateData(DigitalEntity dtlBean) {
+    /**
+     * Uploads the data stream of the DigitalEntity
+     * 
+     * @param dtlBean
+     *            the DigitalEntity to operate on
+     */
+    public void updateData(DigitalEntity dtlBean) {
 	String pid = namespace + ":" + dtlBean.getPid();
 	Stream dataStream = dtlBean.getStream(StreamType.DATA);
 	File data = dataStream.getFile();
@@ -359,14 +796,18 @@ public class Webclient {
      */
     public void updateData(String pid, File data, String mimeType) {
 	try {
-	    WebResource resource = webclient.resource(endpoint + "/resource/"
+	    WebResource resource = resource(endpoint + "/resource/"
 		    + pid + "/data");
 	    logger.info(pid + " Update data: " + mimeType + " "
 		    + data.getAbsolutePath());
 	    try (FormDataMultiPart form = new FormDataMultiPart()) {
 		FileDataBodyPart body = new FileDataBodyPart("data", data);
 		form.bodyPart(body);
-		resource.type(MediaType.MULTIPART_FORM_DATA_TYPE).put(form);
+		// the entity is streamed in chunks, after the headers have been
+		// sent, so the boundary must be known in advance
+		resource.type(
+			Boundary.addBoundary(MediaType.MULTIPART_FORM_DATA_TYPE))
+			.put(form);
 	    }
 	} catch (UniformInterfaceException e) {
 	    logger.error(pid + " " + e.getMessage(), e);
@@ -391,9 +832,7 @@ public class Webclient {
      *            a namespace qualified pid
      */
     public void lobidify(String pid) {
-	WebResource lobid = webclient.resource(endpoint + "/utils/lobidify/"
-		+ pid);
-	lobid.type("text/plain").post();
+	write("POST", endpoint + "/utils/lobidify/" + pid, "text/plain", null);
     }
 
     /**
@@ -418,7 +857,7 @@ public class Webclient {
      */
     public void purge(String pid) throws InterruptedException,
 	    ExecutionException {
-	AsyncWebResource delete = webclient.asyncResource(endpoint
+	AsyncWebResource delete = asyncResource(endpoint
 		+ "/resource/" + pid + "?purge=true");
 	String response = delete.delete(String.class).get();
 	System.out.println(response.toString());
@@ -445,9 +884,7 @@ public class Webclient {
      *            a namespace qualified pid
      */
     public void makeOaiSet(String pid) {
-	WebResource oaiSet = webclient.resource(endpoint + "/resource/" + pid
-		+ "/oaisets");
-	oaiSet.post();
+	write("POST", endpoint + "/resource/" + pid + "/oaisets", null, null);
     }
 
     /**
@@ -458,7 +895,7 @@ public class Webclient {
      *            initialised
      */
     public void initContentModels(String namespace) {
-	WebResource resource = webclient.resource(endpoint
+	WebResource resource = resource(endpoint
 		+ "/utils/initContentModels?namespace=" + namespace);
 	resource.post();
     }
@@ -473,7 +910,7 @@ public class Webclient {
      */
     public void addUrn(String id, String ns, String snid) {
 	try {
-	    WebResource resource = webclient.resource(endpoint
+	    WebResource resource = resource(endpoint
 		    + "/utils/addUrn?id=" + id + "&namespace=" + ns + "&snid="
 		    + snid);
 	    resource.post();
@@ -489,7 +926,7 @@ public class Webclient {
      */
     public String readResource(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid;
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XGET -uedoweb-admin:admin " + resource);
 	    String response = resource.type("application/json")
@@ -507,7 +944,7 @@ public class Webclient {
      */
     public String readResourceIndex(String pid) {
 	String resourceUrl = endpoint + "/resourceIndex/" + pid;
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XGET -uedoweb-admin:admin " + resource);
 	    String response = resource.type("application/json")
@@ -520,7 +957,7 @@ public class Webclient {
 
     public String moveUp(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/moveUp";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XPOST -uedoweb-admin:admin " + resource);
 	    String response = resource.accept("application/json").post(
@@ -533,7 +970,7 @@ public class Webclient {
 
     public String getMetadataFromParent(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/metadata/copy";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XPOST -uedoweb-admin:admin " + resource);
 	    String response = resource.accept("application/json").post(
@@ -546,7 +983,7 @@ public class Webclient {
 
     public String getMetadata(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/metadata";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XGET -uedoweb-admin:admin " + resource);
 	    String response = resource.accept("text/plain").get(String.class);
@@ -558,7 +995,7 @@ public class Webclient {
 
     public String setMetadata(String pid, String metadata) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/metadata";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XPUT -uedoweb-admin:admin " + resource);
 	    resource.accept("text/plain").type("text/plain").put(metadata);
@@ -570,7 +1007,7 @@ public class Webclient {
 
     public String flatten(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/flatten";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XPOST -uedoweb-admin:admin " + resource);
 	    String response = resource.accept("text/plain").type("text/plain")
@@ -583,7 +1020,7 @@ public class Webclient {
 
     public String flattenAll(String pid) {
 	String resourceUrl = endpoint + "/resource/" + pid + "/all/flatten";
-	WebResource resource = webclient.resource(resourceUrl);
+	WebResource resource = resource(resourceUrl);
 	try {
 	    logger.info("curl -XPOST -uedoweb-admin:admin " + resource);
 	    String response = resource.accept("text/plain").type("text/plain")
@@ -596,7 +1033,7 @@ public class Webclient {
 
     public void delete(String pid) throws InterruptedException,
 	    ExecutionException {
-	AsyncWebResource delete = webclient.asyncResource(endpoint
+	AsyncWebResource delete = asyncResource(endpoint
 		+ "/resource/" + pid + "?purge=false");
 	String response = delete.delete(String.class).get();
 	System.out.println(response.toString());
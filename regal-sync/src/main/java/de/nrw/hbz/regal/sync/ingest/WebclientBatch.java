@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the write calls of a Webclient, i.e. the PUTs of resources, dc and
+ * metadata and the POSTs to lobidify and oaisets, and sends them in one bulk
+ * request. If the api has no bulk endpoint the calls are sent one by one.
+ * 
+ * A batch may be filled by several threads; the calls are sent in the order
+ * they have been added. If a call fails, the api may have executed some of
+ * the other calls of its bulk request, so none of them is sent again. The
+ * batch is broken from then on: flush and add throw a BatchException with
+ * the failed calls, because later calls may depend on them.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class WebclientBatch {
+
+    @SuppressWarnings({ "serial", "javadoc" })
+    public class BatchException extends RuntimeException {
+	private final List<Operation> failed;
+
+	public BatchException(List<Operation> failed, Throwable cause) {
+	    super(failed.size() + " calls failed: " + failed, cause);
+	    this.failed = failed;
+	}
+
+	public List<Operation> getFailed() {
+	    return failed;
+	}
+    }
+
+    final static Logger logger = LoggerFactory.getLogger(WebclientBatch.class);
+
+    /**
+     * A single call of the batch
+     */
+    public static class Operation {
+	final String method;
+	final String url;
+	final String contentType;
+	final String body;
+
+	Operation(String method, String url, String contentType, String body) {
+	    this.method = method;
+	    this.url = url;
+	    this.contentType = contentType;
+	    this.body = body;
+	}
+
+	/**
+	 * @param endpoint
+	 *            the endpoint of the api
+	 * @return the operation as json object with a path relative to the
+	 *         endpoint
+	 */
+	String toJson(String endpoint) {
+	    String path = url.startsWith(endpoint) ? url.substring(endpoint
+		    .length()) : url;
+	    return "{\"method\":" + quote(method) + ",\"path\":" + quote(path)
+		    + ",\"contentType\":" + quote(contentType) + ",\"body\":"
+		    + quote(body) + "}";
+	}
+
+	@Override
+	public String toString() {
+	    return method + " " + url;
+	}
+    }
+
+    private final Webclient webclient;
+    private final int maxSize;
+    private final List<Operation> operations = new Vector<Operation>();
+    private final List<Operation> failed = new Vector<Operation>();
+    private Throwable cause = null;
+
+    /**
+     * @param webclient
+     *            the webclient sending the batch
+     * @param maxSize
+     *            the batch is sent as soon as it contains maxSize calls
+     */
+    WebclientBatch(Webclient webclient, int maxSize) {
+	this.webclient = webclient;
+	this.maxSize = Math.max(1, maxSize);
+    }
+
+    synchronized void add(String method, String url, String contentType,
+	    String body) {
+	checkFailed();
+	operations.add(new Operation(method, url, contentType, body));
+	if (operations.size() >= maxSize) {
+	    flush();
+	}
+    }
+
+    /**
+     * @return number of calls waiting to be sent
+     */
+    public int size() {
+	return operations.size();
+    }
+
+    /**
+     * Sends all collected calls. The api executes the calls of a bulk request
+     * in the order they have been collected. Only if the api has no bulk
+     * endpoint the calls are sent one by one.
+     * 
+     * @throws BatchException
+     *             if a call of this or an earlier flush has failed
+     */
+    public synchronized void flush() {
+	checkFailed();
+	if (operations.isEmpty())
+	    return;
+	List<Operation> pending = new Vector<Operation>(operations);
+	operations.clear();
+	if (webclient.isBulkAvailable()) {
+	    try {
+		webclient.sendBulk(pending);
+		return;
+	    } catch (RuntimeException e) {
+		if (webclient.isBulkAvailable()) {
+		    fail(pending, e);
+		}
+		logger.warn("No bulk endpoint, send " + pending.size()
+			+ " calls one by one: " + e.getMessage());
+	    }
+	}
+	for (int i = 0; i < pending.size(); i++) {
+	    try {
+		webclient.send(pending.get(i));
+	    } catch (RuntimeException e) {
+		fail(pending.subList(i, pending.size()), e);
+	    }
+	}
+    }
+
+    private void fail(List<Operation> ops, Throwable e) {
+	failed.addAll(ops);
+	cause = e;
+	logger.error(ops.size() + " calls failed, first " + ops.get(0) + ": "
+		+ e.getMessage(), e);
+	checkFailed();
+    }
+
+    private void checkFailed() {
+	if (!failed.isEmpty()) {
+	    throw new BatchException(new Vector<Operation>(failed), cause);
+	}
+    }
+
+    static String toJson(List<Operation> operations, String endpoint) {
+	StringBuilder json = new StringBuilder("[");
+	for (Operation op : operations) {
+	    if (json.length() > 1)
+		json.append(",");
+	    json.append(op.toJson(endpoint));
+	}
+	return json.append("]").toString();
+    }
+
+    private static String quote(String str) {
+	if (str == null)
+	    return "null";
+	StringBuilder sb = new StringBuilder("\"");
+	for (char c : str.toCharArray()) {
+	    switch (c) {
+	    case '"':
+		sb.append("\\\"");
+		break;
+	    case '\\':
+		sb.append("\\\\");
+		break;
+	    case '\n':
+		sb.append("\\n");
+		break;
+	    case '\r':
+		sb.append("\\r");
+		break;
+	    case '\t':
+		sb.append("\\t");
+		break;
+	    default:
+		if (c < 0x20) {
+		    sb.append(String.format("\\u%04x", (int) c));
+		} else {
+		    sb.append(c);
+		}
+	    }
+	}
+	return sb.append("\"").toString();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+/**
+ * Connection settings of the Webclient. All ingest threads share the
+ * connections of one Webclient.
+ * 
+ * @author Jan Schnasse
+ *
+ */
+public class WebclientConf {
+    /**
+     * maximum number of connections to the api host
+     */
+    public int maxConnectionsPerHost = 8;
+    /**
+     * maximum number of connections to all hosts
+     */
+    public int maxConnections = 32;
+    /**
+     * connect timeout in ms, 0 waits forever
+     */
+    public int connectTimeout = 10000;
+    /**
+     * read timeout in ms, 0 waits forever. Uploads of large files must finish
+     * within this time after the last byte has been sent.
+     */
+    public int readTimeout = 600000;
+    /**
+     * size of a chunk in bytes when uploading data with chunked encoding
+     */
+    public int chunkSize = 64 * 1024;
+    /**
+     * number of threads of the IngestScheduler shared by all ingest threads.
+     * They run the steps and parts of an object at the same time, 0 runs them
+     * in the ingest thread one after the other.
+     */
+    public int partThreads = 0;
+    /**
+     * collect the write calls of an object and send them in bulk requests.
+     * If the api has no bulk endpoint the calls are sent one by one.
+     */
+    public boolean bulk = false;
+    /**
+     * maximum number of calls in a bulk request
+     */
+    public int batchSize = 100;
+    /**
+     * retries failed api calls and pauses all ingest threads if too many
+     * calls fail
+     */
+    public RetryPolicy retryPolicy = new RetryPolicy("api");
+    /**
+     * limits the request rate to the api host
+     */
+    public RateLimits rateLimits = RateLimits.getDefault();
+    /**
+     * adapts the number of concurrent api calls to the latency of the api,
+     * null leaves it to the connection pool
+     */
+    public ConcurrencyLimit concurrencyLimit = new ConcurrencyLimit("api", 4,
+	    maxConnectionsPerHost);
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.List;
+import java.util.Vector;
+
+import models.ObjectType;
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * Ingests a DigitalEntity without parts with the calls of a Webclient. The
+ * data is uploaded while the metadata is merged and the oai sets are made.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+public class WebclientSteps implements IngestSteps {
+
+    private final Webclient webclient;
+    private final ObjectType type;
+    private final String metadata;
+
+    /**
+     * @param webclient
+     *            the webclient to call
+     * @param type
+     *            the type of the created resource
+     * @param metadata
+     *            n-triple metadata merged with the generated metadata
+     */
+    public WebclientSteps(Webclient webclient, ObjectType type,
+	    String metadata) {
+	this.webclient = webclient;
+	this.type = type;
+	this.metadata = metadata;
+    }
+
+    @Override
+    public List<DigitalEntity> create(DigitalEntity entity) {
+	webclient.createResource(type, entity);
+	webclient.updateLabel(entity);
+	return new Vector<DigitalEntity>();
+    }
+
+    @Override
+    public void updateData(DigitalEntity entity) {
+	webclient.updateData(entity);
+    }
+
+    @Override
+    public void updateMetadata(DigitalEntity entity) {
+	webclient.autoGenerateMetadataMerge(entity, metadata);
+    }
+
+    @Override
+    public void makeOaiSet(DigitalEntity entity) {
+	webclient.makeOaiSet(entity);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.nrw.hbz.regal.OaiHeader;
+
+/**
+ * Runs small pipelines whose steps fail with exceptions and errors. Every
+ * test must end, a hanging pipeline fails by timeout.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class PipelineTest {
+
+    private static Iterator<OaiHeader> headers(int count) {
+	return IntStream.range(0, count)
+		.mapToObj(i -> new OaiHeader("test:" + i))
+		.collect(Collectors.toList()).iterator();
+    }
+
+    private static Pipeline pipeline() {
+	Pipeline pipeline = new Pipeline(2);
+	pipeline.setProgressInterval(3600);
+	return pipeline;
+    }
+
+    @Test(timeout = 10000)
+    public void allSucceed() {
+	List<String> ingested = new Vector<String>();
+	Pipeline pipeline = pipeline().stage("download", 2, item -> {
+	}).stage("ingest", 2, item -> ingested.add(item.pid));
+	pipeline.run(headers(20));
+	Assert.assertEquals(20, pipeline.getSucceeded());
+	Assert.assertEquals(20, ingested.size());
+	Assert.assertTrue(pipeline.getFailed().isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void failedItemIsNotPassedOn() {
+	List<String> ingested = new Vector<String>();
+	Pipeline pipeline = pipeline().stage("download", 2, item -> {
+	    if ("test:3".equals(item.pid))
+		throw new Exception("broken");
+	}).stage("ingest", 2, item -> ingested.add(item.pid));
+	pipeline.run(headers(10));
+	Assert.assertEquals(9, pipeline.getSucceeded());
+	Assert.assertFalse(ingested.contains("test:3"));
+	Assert.assertEquals("test:3 (download)", pipeline.getFailed().get(0));
+    }
+
+    @Test(timeout = 10000)
+    public void errorKillsOneWorker() {
+	Pipeline pipeline = pipeline().stage("download", 2, item -> {
+	}).stage("build", 2, item -> {
+	    if ("test:0".equals(item.pid))
+		throw new StackOverflowError();
+	}).stage("ingest", 1, item -> {
+	});
+	pipeline.run(headers(10));
+	Assert.assertEquals(9, pipeline.getSucceeded());
+	Assert.assertEquals(1, pipeline.getFailed().size());
+    }
+
+    @Test(timeout = 10000)
+    public void errorKillsLastStage() {
+	Pipeline pipeline = pipeline().stage("download", 1, item -> {
+	}).stage("ingest", 1, item -> {
+	    throw new OutOfMemoryError();
+	});
+	pipeline.run(headers(10));
+	Assert.assertEquals(0, pipeline.getSucceeded());
+	Assert.assertEquals(10, pipeline.getFailed().size());
+    }
+
+    @Test(timeout = 10000)
+    public void errorKillsFirstStage() {
+	AtomicInteger harvested = new AtomicInteger();
+	Iterator<OaiHeader> headers = headers(1000);
+	Iterator<OaiHeader> counting = new Iterator<OaiHeader>() {
+	    @Override
+	    public boolean hasNext() {
+		return headers.hasNext();
+	    }
+
+	    @Override
+	    public OaiHeader next() {
+		harvested.incrementAndGet();
+		return headers.next();
+	    }
+	};
+	Pipeline pipeline = pipeline().stage("download", 2, item -> {
+	    throw new NoClassDefFoundError();
+	}).stage("ingest", 1, item -> {
+	});
+	pipeline.run(counting);
+	Assert.assertEquals(0, pipeline.getSucceeded());
+	Assert.assertTrue(harvested.get() < 1000);
+	Assert.assertEquals(harvested.get(), pipeline.getFailed().size());
+    }
+}
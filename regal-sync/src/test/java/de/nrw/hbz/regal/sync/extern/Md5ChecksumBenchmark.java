@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.extern;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.nrw.hbz.regal.sync.ingest.Md5Sidecar;
+
+/**
+ * Compares the ways Md5Checksum hashes a file: direct buffer reads, a
+ * stream with a 64 KB buffer, the former 1 KB stream with string
+ * concatenation, and many files hashed in parallel. The sizes stand for
+ * small XML metadata streams and large PDFs and ZIPs. Every call hashes,
+ * the ChecksumCache is bypassed. Run with
+ * 
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=de.nrw.hbz.regal.sync.extern.Md5ChecksumBenchmark
+ * </pre>
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@SuppressWarnings("javadoc")
+public class Md5ChecksumBenchmark {
+
+    private static final int FILES = 16;
+    private static final int LARGE_FILES = 4;
+
+    @Param({ "4096", "65536", "134217728" })
+    public long size;
+
+    private File dir;
+    private List<File> files;
+    private final Md5Checksum checksum = new Md5Checksum();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+	dir = Files.createTempDirectory("md5bench").toFile();
+	files = new ArrayList<File>();
+	Random random = new Random(size);
+	byte[] chunk = new byte[1024 * 1024];
+	int count = size > 1024 * 1024 ? LARGE_FILES : FILES;
+	for (int i = 0; i < count; i++) {
+	    File file = new File(dir, "stream" + i);
+	    try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+		for (long done = 0; done < size; done += chunk.length) {
+		    random.nextBytes(chunk);
+		    out.write(chunk, 0,
+			    (int) Math.min(chunk.length, size - done));
+		}
+	    }
+	    files.add(file);
+	}
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+	FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public String file() throws IOException {
+	return Md5Sidecar.hex(Md5Sidecar.digest(files.get(0)));
+    }
+
+    @Benchmark
+    public String stream() throws IOException {
+	return checksum.getMd5Checksum(new FileInputStream(files.get(0)));
+    }
+
+    @Benchmark
+    public String legacy() throws IOException {
+	byte[] b = legacyChecksum(files.get(0));
+	String result = "";
+	for (int i = 0; i < b.length; i++) {
+	    result += Integer.toString((b[i] & 0xff) + 0x100, 16).substring(1);
+	}
+	return result;
+    }
+
+    @Benchmark
+    public void sequential(Blackhole hole) throws IOException {
+	for (File file : files) {
+	    hole.consume(Md5Sidecar.digest(file));
+	}
+    }
+
+    @Benchmark
+    public Map<File, String> parallel(Touched touched) {
+	return checksum.getMd5Checksums(files, LARGE_FILES);
+    }
+
+    @Benchmark
+    public String hex() {
+	return Md5Sidecar.hex(new byte[16]);
+    }
+
+    private static byte[] legacyChecksum(File file) throws IOException {
+	try (FileInputStream in = new FileInputStream(file)) {
+	    byte[] buffer = new byte[1024];
+	    MessageDigest complete = Md5Sidecar.newDigest();
+	    int numRead;
+	    while ((numRead = in.read(buffer)) != -1) {
+		complete.update(buffer, 0, numRead);
+	    }
+	    return complete.digest();
+	}
+    }
+
+    /**
+     * Changes the modification time of the files before each call, so the
+     * ChecksumCache does not know them and every file is hashed.
+     */
+    @State(Scope.Thread)
+    public static class Touched {
+	private long stamp = System.currentTimeMillis();
+
+	@Setup(Level.Invocation)
+	public void touch(Md5ChecksumBenchmark benchmark) {
+	    stamp += 1000;
+	    for (File file : benchmark.files) {
+		file.setLastModified(stamp);
+	    }
+	}
+    }
+
+    public static void main(String[] args) throws RunnerException {
+	new Runner(new OptionsBuilder().include(
+		Md5ChecksumBenchmark.class.getSimpleName()).build()).run();
+    }
+}
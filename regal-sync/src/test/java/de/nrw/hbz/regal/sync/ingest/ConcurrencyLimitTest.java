@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Feeds windows of 50 calls with a given latency into a ConcurrencyLimit and
+ * checks how the limit follows.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class ConcurrencyLimitTest {
+
+    private static final int WINDOW = 50;
+
+    /**
+     * Makes count calls, always as many at once as the limit allows. The
+     * first failures calls fail.
+     */
+    private static void calls(ConcurrencyLimit limit, int count,
+	    long latency, int failures) throws InterruptedException {
+	int done = 0;
+	while (done < count) {
+	    int n = Math.min(limit.getLimit(), count - done);
+	    for (int i = 0; i < n; i++)
+		limit.acquire();
+	    for (int i = 0; i < n; i++, done++)
+		limit.release(latency, done >= failures, true);
+	}
+    }
+
+    @Test
+    public void fastCallsRaiseLimit() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 2, 4);
+	calls(limit, WINDOW, 10, 0);
+	Assert.assertEquals(3, limit.getLimit());
+	calls(limit, WINDOW, 10, 0);
+	Assert.assertEquals(4, limit.getLimit());
+	calls(limit, WINDOW, 10, 0);
+	Assert.assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void unusedLimitIsNotRaised() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 4, 8);
+	for (int i = 0; i < WINDOW; i++) {
+	    limit.acquire();
+	    limit.release(10, true, true);
+	}
+	Assert.assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void slowCallsLowerLimit() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 8, 8);
+	calls(limit, WINDOW, 10, 0);
+	Assert.assertEquals(8, limit.getLimit());
+	calls(limit, WINDOW, 100, 0);
+	Assert.assertEquals(6, limit.getLimit());
+	calls(limit, WINDOW, 100, 0);
+	Assert.assertEquals(4, limit.getLimit());
+	calls(limit, WINDOW, 15, 0);
+	Assert.assertEquals(5, limit.getLimit());
+    }
+
+    @Test
+    public void failedCallsLowerLimit() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 8, 8);
+	calls(limit, WINDOW, 10, 2);
+	Assert.assertEquals(8, limit.getLimit());
+	calls(limit, WINDOW, 10, 3);
+	Assert.assertEquals(6, limit.getLimit());
+    }
+
+    @Test
+    public void limitStaysPositive() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 4, 4);
+	for (int i = 0; i < 10; i++)
+	    calls(limit, WINDOW, 10, WINDOW);
+	Assert.assertEquals(1, limit.getLimit());
+    }
+
+    @Test(timeout = 10000)
+    public void acquireWaitsForRelease() throws InterruptedException {
+	ConcurrencyLimit limit = new ConcurrencyLimit("test", 1, 1);
+	limit.acquire();
+	CountDownLatch acquired = new CountDownLatch(1);
+	Thread waiting = new Thread(() -> {
+	    try {
+		limit.acquire();
+		acquired.countDown();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+	    }
+	});
+	waiting.start();
+	Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+	Assert.assertEquals(1, limit.getInFlight());
+	limit.release(10, true, true);
+	Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+	Assert.assertEquals(1, limit.getInFlight());
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * Schedules the tree test:1 &rarr; (test:2 &rarr; test:4, test:3) with steps
+ * that record the tasks they have run. The tasks in failing throw an
+ * exception.
+ * 
+ * @author Jan Schnasse, schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class IngestSchedulerTest {
+
+    private static final List<String> STEPS = Arrays.asList("create",
+	    "data", "metadata", "oaiset");
+
+    IngestScheduler scheduler = new IngestScheduler(4);
+    List<String> done = new Vector<String>();
+    List<String> failing = new Vector<String>();
+    Map<String, List<DigitalEntity>> parts =
+	    new HashMap<String, List<DigitalEntity>>();
+    DigitalEntity root = entity("test:1");
+
+    IngestSteps steps = new IngestSteps() {
+	@Override
+	public List<DigitalEntity> create(DigitalEntity entity) {
+	    run(entity, "create");
+	    List<DigitalEntity> p = parts.get(entity.getPid());
+	    return p == null ? Collections.<DigitalEntity> emptyList() : p;
+	}
+
+	@Override
+	public void updateData(DigitalEntity entity) {
+	    run(entity, "data");
+	}
+
+	@Override
+	public void updateMetadata(DigitalEntity entity) {
+	    run(entity, "metadata");
+	}
+
+	@Override
+	public void makeOaiSet(DigitalEntity entity) {
+	    run(entity, "oaiset");
+	}
+    };
+
+    public IngestSchedulerTest() {
+	parts.put("test:1", Arrays.asList(entity("test:2"), entity("test:3")));
+	parts.put("test:2", Arrays.asList(entity("test:4")));
+    }
+
+    @After
+    public void tearDown() {
+	scheduler.shutdown();
+    }
+
+    private static DigitalEntity entity(String pid) {
+	return new DigitalEntity("/tmp/" + pid, pid);
+    }
+
+    private void run(DigitalEntity entity, String step) {
+	String task = entity.getPid() + " " + step;
+	if (failing.contains(task))
+	    throw new RuntimeException(task);
+	done.add(task);
+    }
+
+    private void assertDone(String pid, String... steps) {
+	for (String step : STEPS) {
+	    String task = pid + " " + step;
+	    Assert.assertEquals(task, Arrays.asList(steps).contains(step),
+		    done.contains(task));
+	}
+    }
+
+    private void assertBefore(String first, String second) {
+	Assert.assertTrue(first + " before " + second,
+		done.indexOf(first) < done.indexOf(second));
+    }
+
+    private void assertAllDone() {
+	Assert.assertEquals(16, done.size());
+	for (String pid : Arrays.asList("test:1", "test:2", "test:3",
+		"test:4")) {
+	    assertDone(pid, "create", "data", "metadata", "oaiset");
+	    assertBefore(pid + " create", pid + " data");
+	    assertBefore(pid + " create", pid + " metadata");
+	    assertBefore(pid + " metadata", pid + " oaiset");
+	}
+	assertBefore("test:1 create", "test:2 create");
+	assertBefore("test:1 create", "test:3 create");
+	assertBefore("test:2 create", "test:4 create");
+    }
+
+    @Test(timeout = 10000)
+    public void allTasksRun() {
+	Assert.assertTrue(scheduler.run(root, steps).isEmpty());
+	assertAllDone();
+    }
+
+    @Test(timeout = 10000)
+    public void callingThreadRunsAllTasks() {
+	scheduler.shutdown();
+	scheduler = new IngestScheduler(0);
+	Assert.assertTrue(scheduler.run(root, steps).isEmpty());
+	assertAllDone();
+    }
+
+    @Test(timeout = 10000)
+    public void failedCreateSkipsEntityAndParts() {
+	failing.add("test:2 create");
+	Assert.assertEquals(Arrays.asList("test:2 create"),
+		scheduler.run(root, steps));
+	assertDone("test:1", "create", "data", "metadata", "oaiset");
+	assertDone("test:2");
+	assertDone("test:4");
+	assertDone("test:3", "create", "data", "metadata", "oaiset");
+    }
+
+    @Test(timeout = 10000)
+    public void failedMetadataSkipsOaiSet() {
+	failing.add("test:3 metadata");
+	Assert.assertEquals(Arrays.asList("test:3 metadata"),
+		scheduler.run(root, steps));
+	assertDone("test:3", "create", "data");
+	assertDone("test:1", "create", "data", "metadata", "oaiset");
+	assertDone("test:2", "create", "data", "metadata", "oaiset");
+	assertDone("test:4", "create", "data", "metadata", "oaiset");
+    }
+
+    @Test(timeout = 10000)
+    public void failedRootSkipsAll() {
+	failing.add("test:1 create");
+	Assert.assertEquals(Arrays.asList("test:1 create"),
+		scheduler.run(root, steps));
+	Assert.assertTrue(done.isEmpty());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import models.RegalObject;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.nrw.hbz.regal.sync.extern.DigitalEntity;
+
+/**
+ * Runs a Webclient in bulk mode against a local stand-in for the api. The
+ * stand-in records every request it gets and answers 404 on the bulk endpoint
+ * if bulk is switched off. Requests to a path in failing are answered with
+ * 500.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class WebclientBatchTest {
+
+    HttpServer server = null;
+    List<String> requests = new Vector<String>();
+    List<String> bulkBodies = new Vector<String>();
+    volatile boolean bulk = true;
+    List<String> failing = new Vector<String>();
+    Webclient webclient = null;
+
+    @Before
+    public void setUp() throws IOException {
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/", this::handle);
+	server.start();
+	WebclientConf wconf = new WebclientConf();
+	wconf.bulk = true;
+	wconf.batchSize = 10;
+	webclient = new Webclient("test", "user", "password", "localhost:"
+		+ server.getAddress().getPort(), null, wconf);
+    }
+
+    @After
+    public void tearDown() {
+	server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	String path = exchange.getRequestURI().getPath();
+	String body;
+	try (InputStream in = exchange.getRequestBody()) {
+	    body = IOUtils.toString(in, "utf-8");
+	}
+	requests.add(exchange.getRequestMethod() + " " + path);
+	int status = failing.contains(path) ? 500 : 200;
+	if (status == 200 && "/bulk".equals(path)) {
+	    if (bulk) {
+		bulkBodies.add(body);
+	    } else {
+		status = 404;
+	    }
+	}
+	exchange.sendResponseHeaders(status, -1);
+	exchange.close();
+    }
+
+    private void ingest(String pid) {
+	webclient.createResource(new RegalObject(), pid);
+	webclient.lobidify(pid);
+	webclient.makeOaiSet(pid);
+    }
+
+    @Test
+    public void bulk() {
+	webclient.batch(() -> {
+	    ingest("test:1");
+	    ingest("test:2");
+	    Assert.assertTrue(requests.isEmpty());
+	    return null;
+	});
+	Assert.assertEquals(1, requests.size());
+	Assert.assertEquals("POST /bulk", requests.get(0));
+	String json = bulkBodies.get(0);
+	Assert.assertTrue(json
+		.contains("\"method\":\"PUT\",\"path\":\"/resource/test:1\""));
+	Assert.assertTrue(json.indexOf("/resource/test:1/oaisets") < json
+		.indexOf("/resource/test:2\""));
+    }
+
+    @Test
+    public void batchSize() {
+	webclient.batch(() -> {
+	    for (int i = 0; i < 4; i++) {
+		ingest("test:" + i);
+	    }
+	    return null;
+	});
+	Assert.assertEquals(2, requests.size());
+	Assert.assertEquals(2, bulkBodies.size());
+    }
+
+    @Test
+    public void readSendsBatchFirst() {
+	webclient.batch(() -> {
+	    ingest("test:1");
+	    webclient.readResource("test:1");
+	    return null;
+	});
+	Assert.assertEquals("POST /bulk", requests.get(0));
+	Assert.assertEquals("GET /resource/test:1", requests.get(1));
+    }
+
+    @Test
+    public void fallBackToSingleCalls() {
+	bulk = false;
+	webclient.batch(() -> {
+	    ingest("test:1");
+	    return null;
+	});
+	Assert.assertEquals("POST /bulk", requests.get(0));
+	Assert.assertEquals("PUT /resource/test:1", requests.get(1));
+	Assert.assertEquals("POST /utils/lobidify/test:1", requests.get(2));
+	Assert.assertEquals("POST /resource/test:1/oaisets", requests.get(3));
+	Assert.assertFalse(webclient.isBulkAvailable());
+	requests.clear();
+	webclient.batch(() -> {
+	    ingest("test:2");
+	    return null;
+	});
+	Assert.assertEquals(3, requests.size());
+	Assert.assertEquals("PUT /resource/test:2", requests.get(0));
+    }
+
+    @Test
+    public void schedulerThreads() {
+	DigitalEntity root = new DigitalEntity("", "test:0");
+	List<DigitalEntity> parts = Arrays.asList(new DigitalEntity("",
+		"test:1"), new DigitalEntity("", "test:2"), new DigitalEntity(
+		"", "test:3"));
+	IngestScheduler scheduler = new IngestScheduler(4);
+	List<String> failed = webclient.batch(scheduler, root, entity -> {
+	    ingest(entity.getPid());
+	    return entity == root ? parts : new Vector<DigitalEntity>();
+	});
+	scheduler.shutdown();
+	Assert.assertTrue(failed.isEmpty());
+	Assert.assertEquals(2, requests.size());
+	Assert.assertEquals("POST /bulk", requests.get(0));
+	Assert.assertEquals("POST /bulk", requests.get(1));
+	String json = bulkBodies.get(0) + bulkBodies.get(1);
+	for (int i = 0; i < 4; i++) {
+	    Assert.assertTrue(json
+		    .contains("/resource/test:" + i + "/oaisets"));
+	}
+    }
+
+    @Test
+    public void asyncWebclient() {
+	try (AsyncWebclient async = new AsyncWebclient(webclient, 2)) {
+	    webclient.batch(() -> async.makeOaiSet("test:1").join());
+	}
+	Assert.assertEquals(1, requests.size());
+	Assert.assertEquals("POST /bulk", requests.get(0));
+    }
+
+    @Test
+    public void failedBulkIsNotResent() {
+	failing.add("/bulk");
+	List<String> failed = webclient.batch(new IngestScheduler(0),
+		new DigitalEntity("", "test:1"), entity -> {
+		    ingest(entity.getPid());
+		    return new Vector<DigitalEntity>();
+		});
+	Assert.assertEquals(1, requests.size());
+	Assert.assertEquals(3, failed.size());
+	Assert.assertEquals("PUT " + webclient.endpoint + "/resource/test:1",
+		failed.get(0));
+	Assert.assertTrue(webclient.isBulkAvailable());
+    }
+
+    @Test
+    public void dependentCallFails() {
+	failing.add("/bulk");
+	IngestScheduler scheduler = new IngestScheduler(0);
+	List<String> failed = webclient.batch(scheduler, new DigitalEntity(
+		"", "test:1"), new IngestSteps() {
+	    @Override
+	    public List<DigitalEntity> create(DigitalEntity entity) {
+		webclient.createResource(new RegalObject(), entity.getPid());
+		return new Vector<DigitalEntity>();
+	    }
+
+	    @Override
+	    public void updateData(DigitalEntity entity) {
+		webclient.readResource(entity.getPid());
+	    }
+	});
+	Assert.assertEquals(1, requests.size());
+	Assert.assertTrue(failed.contains("test:1 data"));
+    }
+
+    @Test
+    public void failedSingleCallStopsBatch() {
+	bulk = false;
+	failing.add("/resource/test:1");
+	try {
+	    webclient.batch(() -> {
+		ingest("test:1");
+		return null;
+	    });
+	    Assert.fail();
+	} catch (WebclientBatch.BatchException e) {
+	    Assert.assertEquals(3, e.getFailed().size());
+	}
+	Assert.assertEquals(2, requests.size());
+	Assert.assertEquals("PUT /resource/test:1", requests.get(1));
+    }
+
+    @Test
+    public void withoutBatch() {
+	ingest("test:1");
+	Assert.assertEquals(3, requests.size());
+	Assert.assertTrue(bulkBodies.isEmpty());
+    }
+}
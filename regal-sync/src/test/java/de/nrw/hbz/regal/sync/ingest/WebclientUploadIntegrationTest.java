@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Uploads a sparse file of 3 GB to a local stand-in for the api, which counts
+ * and discards the bytes. The test runs in the integration-test profile, in
+ * a forked JVM with a heap of 128 MB, so a body that is buffered anywhere on
+ * the way fails with an OutOfMemoryError. The heap that is still used after
+ * the garbage collections during the upload must not grow with the size of
+ * the file either.
+ * 
+ * <pre>
+ * mvn -P integration-test verify
+ * </pre>
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class WebclientUploadIntegrationTest {
+
+    final static Logger logger = LoggerFactory
+	    .getLogger(WebclientUploadIntegrationTest.class);
+
+    static final long SIZE = 3L * 1024 * 1024 * 1024;
+    static final long MAX_GROWTH = 32L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    HttpServer server = null;
+    AtomicLong received = new AtomicLong();
+    volatile String contentType = null;
+    volatile String transferEncoding = null;
+    Webclient webclient = null;
+
+    @Before
+    public void setUp() throws IOException {
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/", this::handle);
+	server.start();
+	webclient = new Webclient("test", "user", "password", "localhost:"
+		+ server.getAddress().getPort(), null, new WebclientConf());
+    }
+
+    @After
+    public void tearDown() {
+	server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+	transferEncoding = exchange.getRequestHeaders().getFirst(
+		"Transfer-Encoding");
+	byte[] buffer = new byte[64 * 1024];
+	try (InputStream in = exchange.getRequestBody()) {
+	    int n;
+	    while ((n = in.read(buffer)) != -1) {
+		received.addAndGet(n);
+	    }
+	}
+	exchange.sendResponseHeaders(200, -1);
+	exchange.close();
+    }
+
+    @Test
+    public void uploadLargeFile() throws Exception {
+	File data = folder.newFile("data.zip");
+	try (RandomAccessFile file = new RandomAccessFile(data, "rw")) {
+	    file.setLength(SIZE);
+	}
+	System.gc();
+	long before = retainedHeap();
+	AtomicLong peak = new AtomicLong(before);
+	Thread sampler = new Thread(() -> {
+	    while (!Thread.currentThread().isInterrupted()) {
+		peak.accumulateAndGet(retainedHeap(), Math::max);
+		try {
+		    Thread.sleep(50);
+		} catch (InterruptedException e) {
+		    return;
+		}
+	    }
+	});
+	sampler.start();
+	try {
+	    webclient.updateData("test:1", data, "application/zip");
+	} finally {
+	    sampler.interrupt();
+	    sampler.join();
+	}
+	long growth = peak.get() - before;
+	logger.info("Uploaded " + received.get() + " bytes with a heap of "
+		+ Runtime.getRuntime().maxMemory() / 1024 / 1024
+		+ " MB, retained heap grew by " + growth / 1024 + " KB");
+	Assert.assertTrue(contentType.contains("boundary="));
+	Assert.assertEquals("chunked", transferEncoding);
+	// the multipart body adds its boundaries and headers to the file
+	Assert.assertTrue(received.get() > SIZE);
+	Assert.assertTrue(received.get() < SIZE + 4096);
+	Assert.assertTrue(growth / 1024 + " KB", growth < MAX_GROWTH);
+    }
+
+    /*
+     * The heap still in use after the last collection of each pool
+     */
+    private long retainedHeap() {
+	long used = 0;
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+	    MemoryUsage usage = pool.getCollectionUsage();
+	    if (pool.getType() == MemoryType.HEAP && usage != null) {
+		used += usage.getUsed();
+	    }
+	}
+	return used;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 hbz NRW (http://www.hbz-nrw.de/)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package de.nrw.hbz.regal.sync.ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Uploads a file of several chunks to a local stand-in for the api, which
+ * keeps the body. The body must arrive in chunked transfer encoding, i.e. it
+ * is streamed and not buffered to compute a content length, and must contain
+ * the file unchanged. The upload of a file too large for the heap is run by
+ * WebclientUploadIntegrationTest.
+ * 
+ * @author Jan Schnasse schnasse@hbz-nrw.de
+ * 
+ */
+@SuppressWarnings("javadoc")
+public class WebclientUploadTest {
+
+    static final int CHUNKS = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    HttpServer server = null;
+    volatile byte[] body = null;
+    volatile String contentType = null;
+    volatile String transferEncoding = null;
+    WebclientConf wconf = new WebclientConf();
+    Webclient webclient = null;
+
+    @Before
+    public void setUp() throws IOException {
+	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+	server.createContext("/", this::handle);
+	server.start();
+	webclient = new Webclient("test", "user", "password", "localhost:"
+		+ server.getAddress().getPort(), null, wconf);
+    }
+
+    @After
+    public void tearDown() {
+	server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+	contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+	transferEncoding = exchange.getRequestHeaders().getFirst(
+		"Transfer-Encoding");
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] buffer = new byte[64 * 1024];
+	try (InputStream in = exchange.getRequestBody()) {
+	    int n;
+	    while ((n = in.read(buffer)) != -1) {
+		out.write(buffer, 0, n);
+	    }
+	}
+	body = out.toByteArray();
+	exchange.sendResponseHeaders(200, -1);
+	exchange.close();
+    }
+
+    @Test
+    public void uploadFile() throws Exception {
+	byte[] content = new byte[CHUNKS * wconf.chunkSize + 17];
+	new Random(1).nextBytes(content);
+	File data = folder.newFile("data.zip");
+	Files.write(data.toPath(), content);
+	webclient.updateData("test:1", data, "application/zip");
+	Assert.assertTrue(contentType.contains("boundary="));
+	Assert.assertEquals("chunked", transferEncoding);
+	// the multipart body adds its boundaries and headers to the file
+	byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+	int start = indexOf(body, headerEnd) + headerEnd.length;
+	Assert.assertTrue(start > headerEnd.length);
+	Assert.assertTrue(body.length < start + content.length + 1024);
+	Assert.assertArrayEquals(content,
+		Arrays.copyOfRange(body, start, start + content.length));
+    }
+
+    @Test
+    public void fileChannelWriterIsChosen() {
+	MessageBodyWriter<File> writer = webclient.webclient.getProviders()
+		.getMessageBodyWriter(File.class, File.class,
+			new Annotation[0], new MediaType("application", "zip"));
+	Assert.assertTrue(String.valueOf(writer),
+		writer instanceof FileChannelWriter);
+    }
+
+    private static int indexOf(byte[] array, byte[] part) {
+	outer: for (int i = 0; i <= array.length - part.length; i++) {
+	    for (int j = 0; j < part.length; j++) {
+		if (array[i + j] != part[j])
+		    continue outer;
+	    }
+	    return i;
+	}
+	return -1;
+    }
+}